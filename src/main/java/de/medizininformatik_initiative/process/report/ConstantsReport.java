@@ -37,8 +37,15 @@ public interface ConstantsReport
 	String BPMN_EXECUTION_VARIABLE_REPORT_TIMER_INTERVAL = "reportTimerInterval";
 	String BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION = "reportFirstExecution";
 	String BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION_DELAYED = "reportFirstExecutionDelayed";
+	String BPMN_EXECUTION_VARIABLE_REPORT_AUTOSTART_CYCLES = "reportAutostartCycles";
+	String BPMN_EXECUTION_VARIABLE_REPORT_AUTOSTART_ROLLOVER = "reportAutostartRollover";
+	String BPMN_EXECUTION_VARIABLE_REPORT_EXECUTION_DEFERRED = "reportExecutionDeferred";
+	String BPMN_EXECUTION_VARIABLE_REPORT_EXECUTION_DEFERRED_UNTIL = "reportExecutionDeferredUntil";
+	String BPMN_EXECUTION_VARIABLE_REPORT_DRY_RUN = "reportDryRun";
 	String BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE = "reportSearchBundle";
 	String BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE = "reportSearchBundleResponseReference";
+	String BPMN_EXECUTION_VARIABLE_REPORT_UNCHANGED = "reportUnchanged";
+	String BPMN_EXECUTION_VARIABLE_REPORT_FULL_REFERENCE = "reportFullReference";
 	String BPMN_EXECUTION_VARIABLE_REPORT_RECEIVE_ERROR = "reportReceiveError";
 	String BPMN_EXECUTION_VARIABLE_REPORT_RECEIVE_ERROR_MESSAGE = "reportReceiveErrorMessage";
 
@@ -46,10 +53,13 @@ public interface ConstantsReport
 
 	String CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE = "search-bundle-v";
 	String CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_REFERENCE = "search-bundle-response-reference";
+	String CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_INLINE = "search-bundle-response-inline";
 	String CODESYSTEM_REPORT_VALUE_REPORT_STATUS = "report-status";
 	String CODESYSTEM_REPORT_VALUE_TIMER_INTERVAL = "timer-interval";
 	String CODESYSTEM_REPORT_VALUE_FIRST_EXECUTION = "first-execution";
 	String CODESYSTEM_REPORT_VALUE_HRP_IDENTIFIER = "hrp-identifier";
+	String CODESYSTEM_REPORT_VALUE_DRY_RUN = "dry-run";
+	String CODESYSTEM_REPORT_VALUE_QUERY_PLAN = "query-plan";
 
 	String CODESYSTEM_REPORT_STATUS = "http://medizininformatik-initiative.de/fhir/CodeSystem/report-status";
 	String CODESYSTEM_REPORT_STATUS_VALUE_NOT_ALLOWED = "not-allowed";
@@ -64,6 +74,9 @@ public interface ConstantsReport
 
 	String PROFILE_REPORT_SEARCH_BUNDLE_RESPONSE = "http://medizininformatik-initiative.de/fhir/Bundle/search-bundle-response-report";
 	String EXTENSION_REPORT_STATUS_ERROR_URL = "http://medizininformatik-initiative.de/fhir/StructureDefinition/extension-report-status-error";
+	String EXTENSION_REPORT_COUNT_APPROXIMATE_URL = "http://medizininformatik-initiative.de/fhir/StructureDefinition/extension-report-count-approximate";
+	String EXTENSION_REPORT_DELTA_BASE_URL = "http://medizininformatik-initiative.de/fhir/StructureDefinition/extension-report-delta-base";
+	String EXTENSION_REPORT_CAPABILITY_FINGERPRINT_URL = "http://medizininformatik-initiative.de/fhir/StructureDefinition/extension-report-capability-fingerprint";
 
 	String REPORT_TIMER_INTERVAL_DEFAULT_VALUE = "P7D";
 }
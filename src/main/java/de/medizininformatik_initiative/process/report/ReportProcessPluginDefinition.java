@@ -52,6 +52,9 @@ public class ReportProcessPluginDefinition implements ProcessPluginDefinition
 		var cReport = "fhir/CodeSystem/report.xml";
 		var cReportStatus = "fhir/CodeSystem/report-status.xml";
 
+		var eReportCapabilityFingerprint = "fhir/StructureDefinition/extension-report-capability-fingerprint.xml";
+		var eReportCountApproximate = "fhir/StructureDefinition/extension-report-count-approximate.xml";
+		var eReportDeltaBase = "fhir/StructureDefinition/extension-report-delta-base.xml";
 		var eReportStatusError = "fhir/StructureDefinition/extension-report-status-error.xml";
 
 		var nReportIdent = "fhir/NamingSystem/cds-report-identifier.xml";
@@ -75,10 +78,12 @@ public class ReportProcessPluginDefinition implements ProcessPluginDefinition
 		return Map.of(ConstantsReport.PROCESS_NAME_FULL_REPORT_AUTOSTART,
 				List.of(aAutostart, cReport, sAutostartStart, sAutostartStop, tAutostartStart, tAutostartStop, vReport),
 				ConstantsReport.PROCESS_NAME_FULL_REPORT_RECEIVE,
-				List.of(aReceive, cReport, cReportStatus, eReportStatusError, nReportIdent, sSearchBundle,
-						sSearchBundleResponse, sSend, vReport, vReportStatusReceive),
+				List.of(aReceive, cReport, cReportStatus, eReportCapabilityFingerprint, eReportCountApproximate,
+						eReportDeltaBase, eReportStatusError, nReportIdent, sSearchBundle, sSearchBundleResponse, sSend,
+						vReport, vReportStatusReceive),
 				ConstantsReport.PROCESS_NAME_FULL_REPORT_SEND,
-				List.of(aSend, cReport, cReportStatus, eReportStatusError, nReportIdent, sReceive, sSearchBundle,
+				List.of(aSend, cReport, cReportStatus, eReportCapabilityFingerprint, eReportCountApproximate,
+						eReportDeltaBase, eReportStatusError, nReportIdent, sReceive, sSearchBundle,
 						sSearchBundleResponse, sSendStart, tSendStart, vReport, vReportStatusSend));
 	}
 }
@@ -1,33 +1,181 @@
 package de.medizininformatik_initiative.process.report;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Endpoint;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
-import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.ProcessPluginDeploymentStateListener;
+import dev.dsf.bpe.v1.constants.NamingSystems;
 
 public class ReportProcessPluginDeploymentStateListener
 		implements ProcessPluginDeploymentStateListener, InitializingBean
 {
-	private final FhirClientFactory fhirClientFactory;
+	private static final Logger logger = LoggerFactory.getLogger(ReportProcessPluginDeploymentStateListener.class);
 
-	public ReportProcessPluginDeploymentStateListener(FhirClientFactory fhirClientFactory)
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	private final ProcessPluginApi api;
+	private final ShardedFhirStoreSearchClient fhirStoreSearchClient;
+	private final String resourceVersion;
+	private final String hrpIdentifier;
+	private final boolean warmUpEnabled;
+
+	public ReportProcessPluginDeploymentStateListener(ProcessPluginApi api,
+			ShardedFhirStoreSearchClient fhirStoreSearchClient, String resourceVersion, String hrpIdentifier,
+			boolean warmUpEnabled)
 	{
-		this.fhirClientFactory = fhirClientFactory;
+		this.api = api;
+		this.fhirStoreSearchClient = fhirStoreSearchClient;
+		this.resourceVersion = resourceVersion;
+		this.hrpIdentifier = hrpIdentifier;
+		this.warmUpEnabled = warmUpEnabled;
 	}
 
 	@Override
 	public void afterPropertiesSet()
 	{
-		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(api, "api");
+		Objects.requireNonNull(fhirStoreSearchClient, "fhirStoreSearchClient");
+		Objects.requireNonNull(resourceVersion, "resourceVersion");
 	}
 
 	@Override
 	public void onProcessesDeployed(List<String> activeProcesses)
 	{
 		if (activeProcesses.contains(ConstantsReport.PROCESS_NAME_FULL_REPORT_SEND))
-			fhirClientFactory.testConnection();
+		{
+			fhirStoreSearchClient.testConnections();
+
+			// each warm-up step may take up to the socket timeout, deployment does not wait for it
+			if (warmUpEnabled)
+			{
+				Thread thread = new Thread(this::warmUp, "report-warm-up");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	private void warmUp()
+	{
+		long start = System.currentTimeMillis();
+		logger.info("Warming up report send process clients and FHIR model classes ...");
+
+		warmUpFhirContext();
+		warmUpFhirStore();
+		warmUpLocalDsfFhirServer();
+		warmUpHrp();
+
+		logger.info("Warm-up of report send process finished in {} ms", System.currentTimeMillis() - start);
+	}
+
+	private void warmUpFhirContext()
+	{
+		try
+		{
+			FhirContext fhirContext = api.getFhirContext();
+			List.of(Bundle.class, CapabilityStatement.class, OperationOutcome.class, Task.class)
+					.forEach(fhirContext::getResourceDefinition);
+
+			String bundle = fhirContext.newJsonParser().encodeResourceToString(new Bundle());
+			fhirContext.newJsonParser().parseResource(Bundle.class, bundle);
+			fhirContext.newXmlParser().parseResource(Bundle.class,
+					fhirContext.newXmlParser().encodeResourceToString(new Bundle()));
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not warm up FHIR context - {}", exception.getMessage());
+		}
+	}
+
+	private void warmUpFhirStore()
+	{
+		try
+		{
+			// requests a token if configured, opens a pooled connection and parses the CapabilityStatement once
+			fhirStoreSearchClient.warmUp(CAPABILITY_STATEMENT_PATH);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not warm up connection to FHIR store - {}", exception.getMessage());
+		}
+	}
+
+	private void warmUpLocalDsfFhirServer()
+	{
+		try
+		{
+			String localIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+					.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
+
+			api.getFhirWebserviceClientProvider().getLocalWebserviceClient().search(Bundle.class,
+					Map.of("identifier",
+							Collections.singletonList(
+									ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER + "|" + localIdentifier),
+							"_summary", Collections.singletonList("count")));
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not warm up connection to local DSF FHIR server - {}", exception.getMessage());
+		}
+	}
+
+	private void warmUpHrp()
+	{
+		try
+		{
+			Optional<String> hrpEndpointAddress = getHrpEndpointAddress();
+
+			if (hrpEndpointAddress.isEmpty())
+			{
+				logger.debug("No HRP endpoint found, skipping warm-up of HRP connection");
+				return;
+			}
+
+			String searchBundleIdentifier = ConstantsReport.CODESYSTEM_REPORT + "|"
+					+ ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE + resourceVersion;
+
+			api.getFhirWebserviceClientProvider().getWebserviceClient(hrpEndpointAddress.get()).search(Bundle.class,
+					Map.of("identifier", Collections.singletonList(searchBundleIdentifier), "_summary",
+							Collections.singletonList("count")));
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not warm up connection to HRP - {}", exception.getMessage());
+		}
+	}
+
+	private Optional<String> getHrpEndpointAddress()
+	{
+		Identifier parentIdentifier = NamingSystems.OrganizationIdentifier.withValue(
+				ConstantsBase.NAMINGSYSTEM_DSF_ORGANIZATION_IDENTIFIER_MEDICAL_INFORMATICS_INITIATIVE_CONSORTIUM);
+		Coding hrpRole = new Coding().setSystem(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE)
+				.setCode(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE_VALUE_HRP);
+
+		Optional<Identifier> organizationIdentifier = Optional.ofNullable(hrpIdentifier)
+				.map(NamingSystems.OrganizationIdentifier::withValue)
+				.or(() -> api.getOrganizationProvider().getOrganizations(parentIdentifier, hrpRole).stream()
+						.findFirst().flatMap(NamingSystems.OrganizationIdentifier::findFirst));
+
+		return organizationIdentifier
+				.flatMap(i -> api.getEndpointProvider().getEndpoint(parentIdentifier, i, hrpRole))
+				.map(Endpoint::getAddress);
 	}
 }
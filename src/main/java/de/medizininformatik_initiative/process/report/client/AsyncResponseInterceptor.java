@@ -0,0 +1,104 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.List;
+import java.util.OptionalLong;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+public class AsyncResponseInterceptor implements IClientInterceptor
+{
+	public static final String HEADER_PREFER = "Prefer";
+	public static final String PREFER_RESPOND_ASYNC = "respond-async";
+
+	private static final int STATUS_ACCEPTED = 202;
+	private static final String HEADER_CONTENT_LOCATION = "Content-Location";
+	private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+	public static final class Pending extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String location;
+		private final OptionalLong retryAfterMillis;
+
+		private Pending(String location, OptionalLong retryAfterMillis)
+		{
+			super("Request accepted for asynchronous processing, status at '" + location + "'");
+
+			this.location = location;
+			this.retryAfterMillis = retryAfterMillis;
+		}
+
+		public String getLocation()
+		{
+			return location;
+		}
+
+		public OptionalLong getRetryAfterMillis()
+		{
+			return retryAfterMillis;
+		}
+	}
+
+	public static Pending findPending(Throwable throwable)
+	{
+		// HAPI may wrap exceptions thrown by interceptors
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof Pending pending)
+				return pending;
+		}
+
+		return null;
+	}
+
+	public void registerWith(IGenericClient client)
+	{
+		if (!client.getInterceptorService().getAllRegisteredInterceptors().contains(this))
+			client.registerInterceptor(this);
+	}
+
+	@Override
+	public void interceptRequest(IHttpRequest request)
+	{
+	}
+
+	@Override
+	public void interceptResponse(IHttpResponse response)
+	{
+		if (response.getStatus() != STATUS_ACCEPTED)
+			return;
+
+		String location = getFirstHeader(response, HEADER_CONTENT_LOCATION);
+		if (location == null)
+			throw new InternalErrorException("FHIR server accepted asynchronous request without Content-Location");
+
+		// aborts parsing of the empty 202 response, the caller polls the status location instead
+		throw new Pending(location, getRetryAfterMillis(response));
+	}
+
+	private OptionalLong getRetryAfterMillis(IHttpResponse response)
+	{
+		String retryAfter = getFirstHeader(response, HEADER_RETRY_AFTER);
+
+		try
+		{
+			return retryAfter == null ? OptionalLong.empty() : OptionalLong.of(Long.parseLong(retryAfter) * 1000);
+		}
+		catch (NumberFormatException exception)
+		{
+			// HTTP-date values are not supported, the configured poll interval is used instead
+			return OptionalLong.empty();
+		}
+	}
+
+	private String getFirstHeader(IHttpResponse response, String name)
+	{
+		List<String> values = response.getHeaders(name);
+		return values == null || values.isEmpty() ? null : values.get(0).trim();
+	}
+}
@@ -0,0 +1,160 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+public class AsyncSearchPoller implements InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(AsyncSearchPoller.class);
+
+	private record Job(IGenericClient client, String url, String statusUrl, long start,
+			CompletableFuture<Resource> result)
+	{
+	}
+
+	private final QueryTimings queryTimings;
+	private final int threads;
+	private final long pollIntervalMillis;
+	private final long maxWaitMillis;
+
+	private final AsyncResponseInterceptor asyncResponseInterceptor = new AsyncResponseInterceptor();
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	private ScheduledExecutorService scheduler;
+
+	public AsyncSearchPoller(QueryTimings queryTimings, int threads, long pollIntervalMillis, long maxWaitMillis)
+	{
+		this.queryTimings = queryTimings;
+		this.threads = threads;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(queryTimings, "queryTimings");
+
+		if (threads < 1)
+			throw new IllegalArgumentException("threads < 1");
+		if (pollIntervalMillis <= 0)
+			throw new IllegalArgumentException("pollIntervalMillis <= 0");
+		if (maxWaitMillis <= 0)
+			throw new IllegalArgumentException("maxWaitMillis <= 0");
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		scheduler = Executors.newScheduledThreadPool(threads, r ->
+		{
+			Thread thread = new Thread(r, "report-async-poll-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void destroy()
+	{
+		if (scheduler != null)
+			scheduler.shutdownNow();
+	}
+
+	public AsyncResponseInterceptor getAsyncResponseInterceptor()
+	{
+		return asyncResponseInterceptor;
+	}
+
+	public CompletableFuture<Resource> poll(IGenericClient client, String url, AsyncResponseInterceptor.Pending pending,
+			long start)
+	{
+		CompletableFuture<Resource> result = new CompletableFuture<>();
+		Job job = new Job(client, url, pending.getLocation(), start, result);
+
+		logger.debug("Search request '{}' accepted for asynchronous processing, polling '{}' ({} outstanding)", url,
+				job.statusUrl(), outstanding.incrementAndGet());
+		result.whenComplete((r, t) -> outstanding.decrementAndGet());
+
+		schedule(job, pending.getRetryAfterMillis().orElse(pollIntervalMillis));
+
+		return result;
+	}
+
+	private void schedule(Job job, long delayMillis)
+	{
+		scheduler.schedule(() -> poll(job), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll(Job job)
+	{
+		try
+		{
+			Bundle response = job.client().fetchResourceFromUrl(Bundle.class, job.statusUrl());
+			Resource result = toResult(job, response);
+
+			queryTimings.record(job.url(), System.currentTimeMillis() - job.start());
+			job.result().complete(result);
+		}
+		catch (RuntimeException exception)
+		{
+			AsyncResponseInterceptor.Pending pending = AsyncResponseInterceptor.findPending(exception);
+
+			if (pending == null)
+				job.result().completeExceptionally(exception);
+			else if (System.currentTimeMillis() - job.start() > maxWaitMillis)
+				job.result().completeExceptionally(new InternalErrorException("Asynchronous search request '"
+						+ job.url() + "' not completed within " + maxWaitMillis + " ms"));
+			else
+				schedule(job, pending.getRetryAfterMillis().orElse(pollIntervalMillis));
+		}
+	}
+
+	private Resource toResult(Job job, Bundle response)
+	{
+		// completed async requests return a batch-response Bundle wrapping the actual response
+		if (!Bundle.BundleType.BATCHRESPONSE.equals(response.getType()))
+			return response;
+
+		if (response.getEntry().isEmpty())
+			throw new InternalErrorException(
+					"Asynchronous search request '" + job.url() + "' completed without response entry");
+
+		Bundle.BundleEntryComponent entry = response.getEntry().get(0);
+		String status = entry.getResponse().getStatus();
+		int statusCode = parseStatusCode(status);
+
+		if (statusCode < 200 || statusCode > 299)
+			throw BaseServerResponseException.newInstance(statusCode,
+					"Asynchronous search request '" + job.url() + "' completed with status " + status);
+		if (!entry.hasResource())
+			throw new InternalErrorException(
+					"Asynchronous search request '" + job.url() + "' completed without resource");
+
+		return entry.getResource();
+	}
+
+	private int parseStatusCode(String status)
+	{
+		try
+		{
+			return status == null ? 500 : Integer.parseInt(status.trim().split(" ", 2)[0]);
+		}
+		catch (NumberFormatException exception)
+		{
+			return 500;
+		}
+	}
+}
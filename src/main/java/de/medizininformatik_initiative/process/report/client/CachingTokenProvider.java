@@ -0,0 +1,216 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenProvider;
+
+public class CachingTokenProvider implements TokenProvider, InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(CachingTokenProvider.class);
+
+	private static final Pattern JWT_EXPIRY = Pattern.compile("\"exp\"\\s*:\\s*(\\d+)");
+	private static final long MIN_REFRESH_DELAY_MILLIS = 10_000;
+	private static final long MAX_RETRY_INTERVAL_MILLIS = 600_000;
+	private static final long MIN_EXPIRY_MARGIN_MILLIS = 30_000;
+
+	private record CachedToken(String value, Instant fetchedAt, Instant expiresAt)
+	{
+		// tokens expiring within the margin may expire in flight or on servers with clock skew, the margin is at
+		// most half the lifetime so fresh tokens of short lifetimes are still valid
+		boolean isValid(long marginMillis)
+		{
+			return Instant.now().plusMillis(Math.min(marginMillis, lifetimeMillis() / 2)).isBefore(expiresAt);
+		}
+
+		long lifetimeMillis()
+		{
+			return Math.max(0, expiresAt.toEpochMilli() - fetchedAt.toEpochMilli());
+		}
+	}
+
+	private final TokenClient tokenClient;
+	private final long refreshBeforeExpiryMillis;
+	private final long defaultLifetimeMillis;
+
+	private final Object refreshLock = new Object();
+	private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(r ->
+	{
+		Thread thread = new Thread(r, "report-token-refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ScheduledFuture<?> scheduledRefresh;
+	private int failedRefreshes;
+
+	private volatile CachedToken token;
+	private volatile long lastUsedMillis;
+
+	public CachingTokenProvider(TokenClient tokenClient, long refreshBeforeExpiryMillis, long defaultLifetimeMillis)
+	{
+		this.tokenClient = tokenClient;
+		this.refreshBeforeExpiryMillis = refreshBeforeExpiryMillis;
+		this.defaultLifetimeMillis = defaultLifetimeMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(tokenClient, "tokenClient");
+
+		if (refreshBeforeExpiryMillis < 0)
+			throw new IllegalArgumentException("refreshBeforeExpiryMillis < 0");
+		if (defaultLifetimeMillis <= 0)
+			throw new IllegalArgumentException("defaultLifetimeMillis <= 0");
+	}
+
+	@Override
+	public void destroy()
+	{
+		refreshExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean isConfigured()
+	{
+		return tokenClient.isConfigured();
+	}
+
+	@Override
+	public String getInfo()
+	{
+		return tokenClient.getInfo();
+	}
+
+	@Override
+	public String getToken()
+	{
+		lastUsedMillis = System.currentTimeMillis();
+		CachedToken current = token;
+
+		if (current != null && current.isValid(getExpiryMarginMillis()))
+			return current.value();
+
+		return refresh(current).value();
+	}
+
+	private long getExpiryMarginMillis()
+	{
+		return Math.max(MIN_EXPIRY_MARGIN_MILLIS, refreshBeforeExpiryMillis);
+	}
+
+	private CachedToken refresh(CachedToken stale)
+	{
+		synchronized (refreshLock)
+		{
+			// another thread may have refreshed the token while we were waiting for the lock
+			CachedToken current = token;
+			if (current != stale && current != null && current.isValid(getExpiryMarginMillis()))
+				return current;
+
+			Instant start = Instant.now();
+			String value = tokenClient.requestToken().getToken();
+			long latencyMillis = System.currentTimeMillis() - start.toEpochMilli();
+
+			CachedToken fetched = new CachedToken(value, start, getExpiry(value));
+			token = fetched;
+			failedRefreshes = 0;
+
+			logger.info("Requested access token from {} in {} ms, valid until {}", tokenClient.getInfo(),
+					latencyMillis, fetched.expiresAt());
+
+			// refresh ahead of expiry, but not more often than every half token lifetime, expired tokens or clock
+			// skew must not result in a refresh loop
+			long remainingMillis = Math.max(0, fetched.expiresAt().toEpochMilli() - System.currentTimeMillis());
+			scheduleRefresh(Math.max(MIN_REFRESH_DELAY_MILLIS,
+					Math.max(remainingMillis / 2, remainingMillis - refreshBeforeExpiryMillis)));
+
+			return fetched;
+		}
+	}
+
+	private void scheduleRefresh(long delayMillis)
+	{
+		synchronized (refreshLock)
+		{
+			if (refreshExecutor.isShutdown())
+				return;
+
+			if (scheduledRefresh != null)
+				scheduledRefresh.cancel(false);
+
+			scheduledRefresh = refreshExecutor.schedule(this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void refreshInBackground()
+	{
+		// tokens not used within a lifetime are not refreshed, e.g. between weekly reports, the next caller
+		// requests a new token and restarts the background refresh
+		CachedToken current = token;
+		long idleMillis = System.currentTimeMillis() - lastUsedMillis;
+		if (current != null && idleMillis > current.lifetimeMillis())
+		{
+			logger.debug("Access token from {} not used for {} ms, stopping background refresh",
+					tokenClient.getInfo(), idleMillis);
+			return;
+		}
+
+		try
+		{
+			refresh(current);
+		}
+		catch (Exception exception)
+		{
+			long retryMillis;
+			synchronized (refreshLock)
+			{
+				failedRefreshes++;
+				retryMillis = Math.min(MAX_RETRY_INTERVAL_MILLIS,
+						MIN_REFRESH_DELAY_MILLIS << Math.min(failedRefreshes - 1, 6));
+			}
+
+			logger.warn("Could not refresh access token from {}, retrying in {} ms - {}", tokenClient.getInfo(),
+					retryMillis, exception.getMessage());
+			scheduleRefresh(retryMillis);
+		}
+	}
+
+	private Instant getExpiry(String value)
+	{
+		String[] parts = value.split("\\.");
+
+		if (parts.length >= 2)
+		{
+			try
+			{
+				String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+				Matcher matcher = JWT_EXPIRY.matcher(payload);
+
+				if (matcher.find())
+					return Instant.ofEpochSecond(Long.parseLong(matcher.group(1)));
+			}
+			catch (IllegalArgumentException exception)
+			{
+				logger.debug("Could not read expiry of access token - {}", exception.getMessage());
+			}
+		}
+
+		return Instant.now().plusMillis(defaultLifetimeMillis);
+	}
+}
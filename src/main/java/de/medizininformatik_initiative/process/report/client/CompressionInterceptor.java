@@ -0,0 +1,149 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+
+public class CompressionInterceptor implements IClientInterceptor
+{
+	private static final Logger logger = LoggerFactory.getLogger(CompressionInterceptor.class);
+
+	private static final String HEADER_ACCEPT = "Accept";
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+	// JSON is parsed faster than XML, XML is still accepted from servers without JSON support
+	private static final String ACCEPT_JSON_FIRST = "application/fhir+json;q=1.0, application/json+fhir;q=0.9, "
+			+ "application/fhir+xml;q=0.5, application/xml+fhir;q=0.4";
+	private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final String ENCODING_GZIP = "gzip";
+	private static final String ENCODING_X_GZIP = "x-gzip";
+	private static final String ENCODING_DEFLATE = "deflate";
+
+	public void registerWith(IGenericClient client)
+	{
+		if (!client.getInterceptorService().getAllRegisteredInterceptors().contains(this))
+			client.registerInterceptor(this);
+	}
+
+	@Override
+	public void interceptRequest(IHttpRequest request)
+	{
+		request.removeHeaders(HEADER_ACCEPT);
+		request.addHeader(HEADER_ACCEPT, ACCEPT_JSON_FIRST);
+
+		if (!request.getAllHeaders().containsKey(HEADER_ACCEPT_ENCODING))
+			request.addHeader(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+	}
+
+	@Override
+	public void interceptResponse(IHttpResponse response)
+	{
+		if (!(response.getResponse() instanceof HttpResponse httpResponse) || httpResponse.getEntity() == null)
+			return;
+
+		// responses decompressed by the http client have no Content-Encoding, only decoded bytes are counted
+		String encoding = getContentEncoding(response);
+		boolean gzip = ENCODING_GZIP.equals(encoding) || ENCODING_X_GZIP.equals(encoding);
+		boolean deflate = ENCODING_DEFLATE.equals(encoding);
+
+		httpResponse.setEntity(new HttpEntityWrapper(httpResponse.getEntity())
+		{
+			@Override
+			public InputStream getContent() throws IOException
+			{
+				CountingInputStream wire = new CountingInputStream(super.getContent(), null);
+				InputStream decoded = gzip ? new GZIPInputStream(wire) : deflate ? new InflaterInputStream(wire) : wire;
+
+				return gzip || deflate ? new CountingInputStream(decoded, wire) : wire;
+			}
+
+			@Override
+			public long getContentLength()
+			{
+				return gzip || deflate ? -1 : super.getContentLength();
+			}
+
+			@Override
+			public Header getContentEncoding()
+			{
+				return gzip || deflate ? null : super.getContentEncoding();
+			}
+		});
+	}
+
+	private String getContentEncoding(IHttpResponse response)
+	{
+		List<String> values = response.getHeaders(HEADER_CONTENT_ENCODING);
+		return values == null || values.isEmpty() ? null : values.get(0).trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static final class CountingInputStream extends FilterInputStream
+	{
+		private final CountingInputStream wire;
+
+		private long read;
+		private boolean closed;
+
+		private CountingInputStream(InputStream in, CountingInputStream wire)
+		{
+			super(in);
+			this.wire = wire;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+
+			if (b >= 0)
+				read++;
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int n = super.read(buffer, offset, length);
+
+			if (n > 0)
+				read += n;
+
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			super.close();
+
+			if (closed)
+				return;
+
+			closed = true;
+
+			if (wire != null)
+				logger.debug("Received {} bytes compressed to {} bytes ({}%)", read, wire.read,
+						read == 0 ? 100 : wire.read * 100 / read);
+			else if (logger.isDebugEnabled())
+				logger.debug("Received {} bytes", read);
+		}
+	}
+}
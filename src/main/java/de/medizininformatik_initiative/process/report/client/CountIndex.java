@@ -0,0 +1,591 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+
+public class CountIndex implements InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(CountIndex.class);
+
+	private static final int PAGE_SIZE = 1000;
+	private static final long CURSOR_OVERLAP_MILLIS = 60000;
+	private static final String FORMAT_VERSION = "2";
+
+	private static final String LINE_SOURCES = "sources";
+	private static final String LINE_POLL = "poll";
+	private static final String LINE_CURSOR = "cursor";
+	private static final String LINE_TYPE = "type";
+	private static final String LINE_LOADED = "loaded";
+	private static final String LINE_COUNT = "count";
+	private static final String LINE_CHANGED = "changed";
+
+	private final FhirContext fhirContext;
+	private final List<FhirClientFactory> sources;
+	private final CompressionInterceptor compressionInterceptor;
+	private final Path file;
+	private final long pollIntervalMillis;
+	private final long maxAgeMillis;
+
+	// resource counts per distinct dimensions, by source index and resource type, e.g. 0|Observation
+	private final Map<String, Map<SearchPredicate.Dimensions, Long>> counts = new HashMap<>();
+
+	// server time of the initial load by source index and resource type, older changes are contained in the load
+	private final Map<String, Long> loadedTypes = new TreeMap<>();
+
+	// last applied change of resources changed since the start of the current history window, by source index and
+	// versionless resource reference, e.g. 0|Observation/123, only accessed by the poll thread
+	private final Map<String, Long> recentChanges = new HashMap<>();
+
+	private final Set<String> trackedTypes = new TreeSet<>();
+	private final long[] cursors;
+	private long lastPoll;
+
+	private ScheduledExecutorService scheduler;
+
+	public CountIndex(FhirContext fhirContext, List<FhirClientFactory> sources,
+			CompressionInterceptor compressionInterceptor, Path file, long pollIntervalMillis, long maxAgeMillis)
+	{
+		this.fhirContext = fhirContext;
+		this.sources = sources;
+		this.compressionInterceptor = compressionInterceptor;
+		this.file = file;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.maxAgeMillis = maxAgeMillis;
+
+		cursors = new long[sources == null ? 0 : sources.size()];
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(fhirContext, "fhirContext");
+		Objects.requireNonNull(sources, "sources");
+		Objects.requireNonNull(compressionInterceptor, "compressionInterceptor");
+
+		if (!isEnabled())
+			return;
+
+		if (pollIntervalMillis <= 0)
+			throw new IllegalArgumentException("pollIntervalMillis <= 0");
+		if (maxAgeMillis <= 0)
+			throw new IllegalArgumentException("maxAgeMillis <= 0");
+
+		load();
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			Thread thread = new Thread(r, "report-count-index");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy()
+	{
+		if (scheduler != null)
+			scheduler.shutdownNow();
+	}
+
+	public boolean isEnabled()
+	{
+		return file != null;
+	}
+
+	// returns searchset Bundles with totals for all urls of indexed resource types if the index is fresh
+	public Map<String, Resource> count(List<String> urls)
+	{
+		if (!isEnabled())
+			return Map.of();
+
+		Map<String, SearchPredicate> predicates = new LinkedHashMap<>();
+		urls.stream().distinct().forEach(url -> SearchPredicate.compile(fhirContext, url)
+				.ifPresentOrElse(p -> predicates.put(url, p),
+						() -> logger.debug("Report search request '{}' not supported by count index", url)));
+
+		Map<String, Resource> results = new HashMap<>();
+		long indexSize;
+		synchronized (this)
+		{
+			// resource types of new requests are loaded by the next poll
+			predicates.values().stream().map(SearchPredicate::getResourceType).forEach(trackedTypes::add);
+
+			long age = System.currentTimeMillis() - lastPoll;
+			if (age > maxAgeMillis)
+			{
+				logger.info("Count index last updated {} ms ago, executing report search requests instead", age);
+				return Map.of();
+			}
+
+			for (Map.Entry<String, SearchPredicate> predicate : predicates.entrySet())
+			{
+				String resourceType = predicate.getValue().getResourceType();
+				if (!isLoaded(resourceType))
+					continue;
+
+				long total = 0;
+				for (int source = 0; source < sources.size(); source++)
+					total += counts.getOrDefault(source + "|" + resourceType, Map.of()).entrySet().stream()
+							.filter(e -> predicate.getValue().test(e.getKey())).mapToLong(Map.Entry::getValue).sum();
+
+				// totals above the maximum of Bundle.total are reported as approximate maximum
+				Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+				bundle.setTotal((int) Math.min(total, Integer.MAX_VALUE));
+				if (total > Integer.MAX_VALUE)
+					bundle.getTotalElement().addExtension(ConstantsReport.EXTENSION_REPORT_COUNT_APPROXIMATE_URL,
+							new BooleanType(true));
+				bundle.getMeta().setLastUpdated(new Date(lastPoll));
+
+				results.put(predicate.getKey(), bundle);
+			}
+
+			indexSize = counts.values().stream().flatMap(c -> c.values().stream()).mapToLong(Long::longValue).sum();
+		}
+
+		logger.info("Evaluated {} of {} report search requests with count index of {} resources", results.size(),
+				urls.size(), indexSize);
+
+		return results;
+	}
+
+	private boolean isLoaded(String resourceType)
+	{
+		for (int source = 0; source < sources.size(); source++)
+		{
+			if (!loadedTypes.containsKey(source + "|" + resourceType))
+				return false;
+		}
+
+		return true;
+	}
+
+	private void poll()
+	{
+		long pollStart = System.currentTimeMillis();
+		boolean complete = true;
+
+		for (int source = 0; source < sources.size(); source++)
+		{
+			try
+			{
+				poll(source, pollStart);
+			}
+			catch (RuntimeException exception)
+			{
+				complete = false;
+				logger.warn("Could not update count index from FHIR server {} - {}", source, exception.getMessage());
+			}
+		}
+
+		synchronized (this)
+		{
+			if (complete)
+				lastPoll = pollStart;
+		}
+
+		persist();
+	}
+
+	private void poll(int source, long pollStart)
+	{
+		IGenericClient client = sources.get(source).getFhirClient().getGenericFhirClient();
+		compressionInterceptor.registerWith(client);
+
+		List<String> newTypes;
+		long cursor;
+		synchronized (this)
+		{
+			newTypes = trackedTypes.stream().filter(t -> !loadedTypes.containsKey(source + "|" + t)).toList();
+			cursor = cursors[source];
+		}
+
+		for (String resourceType : newTypes)
+			loadType(client, source, resourceType);
+
+		if (cursor > 0)
+		{
+			List<Bundle.BundleEntryComponent> changes = readHistory(client, new Date(cursor - CURSOR_OVERLAP_MILLIS));
+			applyHistory(client, source, changes);
+		}
+
+		synchronized (this)
+		{
+			cursors[source] = pollStart;
+		}
+
+		// older changes are not read again by the next history poll
+		String prefix = source + "|";
+		recentChanges.entrySet()
+				.removeIf(e -> e.getKey().startsWith(prefix) && e.getValue() < pollStart - CURSOR_OVERLAP_MILLIS);
+	}
+
+	private void loadType(IGenericClient client, int source, String resourceType)
+	{
+		long start = System.currentTimeMillis();
+		Map<SearchPredicate.Dimensions, Long> loaded = new HashMap<>();
+		Map<String, Long> changed = new HashMap<>();
+
+		Bundle page = client.search().byUrl(resourceType + "?_count=" + PAGE_SIZE).returnBundle(Bundle.class)
+				.execute();
+
+		// changes before the search are contained in the load, changes while paging are applied by the history poll
+		// unless the load already returned the changed version
+		long loadStart = page.getMeta().hasLastUpdated() ? page.getMeta().getLastUpdated().getTime() : start;
+
+		while (page != null)
+		{
+			page.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResource)
+					.map(Bundle.BundleEntryComponent::getResource).filter(r -> resourceType.equals(r.fhirType()))
+					.forEach(r ->
+					{
+						loaded.merge(SearchPredicate.extract(fhirContext, r), 1L, Long::sum);
+
+						Date lastUpdated = r.getMeta().getLastUpdated();
+						if (lastUpdated != null && lastUpdated.getTime() >= loadStart)
+							changed.put(toKey(source, r.getIdElement()), lastUpdated.getTime());
+					});
+
+			page = page.getLink(Bundle.LINK_NEXT) == null ? null
+					: client.loadPage().next(page).execute();
+		}
+
+		synchronized (this)
+		{
+			counts.put(source + "|" + resourceType, loaded);
+			loadedTypes.put(source + "|" + resourceType, loadStart);
+		}
+		recentChanges.putAll(changed);
+
+		logger.info("Loaded {} {} resources from FHIR server {} into count index in {} ms",
+				loaded.values().stream().mapToLong(Long::longValue).sum(), resourceType, source,
+				System.currentTimeMillis() - start);
+	}
+
+	private List<Bundle.BundleEntryComponent> readHistory(IGenericClient client, Date since)
+	{
+		List<Bundle.BundleEntryComponent> changes = new ArrayList<>();
+
+		Bundle page = client.history().onServer().returnBundle(Bundle.class).since(since).count(PAGE_SIZE)
+				.execute();
+		while (page != null)
+		{
+			changes.addAll(page.getEntry());
+
+			page = page.getLink(Bundle.LINK_NEXT) == null ? null
+					: client.loadPage().next(page).execute();
+		}
+
+		// history bundles are sorted newest first
+		Collections.reverse(changes);
+		return changes;
+	}
+
+	// updates and deletes replace the counted previous version, read from the instance history
+	private void applyHistory(IGenericClient client, int source, List<Bundle.BundleEntryComponent> changes)
+	{
+		Map<String, Long> loaded;
+		synchronized (this)
+		{
+			loaded = new HashMap<>(loadedTypes);
+		}
+
+		Map<String, Map<SearchPredicate.Dimensions, Long>> deltas = new HashMap<>();
+		int applied = 0;
+
+		for (Bundle.BundleEntryComponent change : changes)
+		{
+			IdType id = getId(change);
+
+			if (id == null || !id.hasResourceType() || !id.hasIdPart())
+				continue;
+
+			String type = source + "|" + id.getResourceType();
+			String key = toKey(source, id);
+			Long loadStart = loaded.get(type);
+			Long lastUpdated = getLastUpdated(change);
+
+			if (loadStart == null || (lastUpdated != null && (lastUpdated < loadStart
+					|| lastUpdated <= recentChanges.getOrDefault(key, Long.MIN_VALUE))))
+				continue;
+
+			boolean created = change.hasRequest() && Bundle.HTTPVerb.POST.equals(change.getRequest().getMethod());
+			boolean deleted = change.hasRequest() && Bundle.HTTPVerb.DELETE.equals(change.getRequest().getMethod());
+
+			if (!created)
+				findPreviousVersion(client, id, getVersionId(change))
+						.ifPresent(p -> add(deltas, type, SearchPredicate.extract(fhirContext, p), -1));
+			if (!deleted && change.hasResource())
+				add(deltas, type, SearchPredicate.extract(fhirContext, change.getResource()), 1);
+
+			if (lastUpdated != null)
+				recentChanges.put(key, lastUpdated);
+
+			applied++;
+		}
+
+		synchronized (this)
+		{
+			deltas.forEach((type, delta) ->
+			{
+				Map<SearchPredicate.Dimensions, Long> typeCounts = counts.computeIfAbsent(type, t -> new HashMap<>());
+				delta.forEach((dimensions, difference) ->
+				{
+					long count = typeCounts.getOrDefault(dimensions, 0L) + difference;
+
+					if (count > 0)
+						typeCounts.put(dimensions, count);
+					else
+						typeCounts.remove(dimensions);
+				});
+			});
+		}
+
+		logger.debug("Applied {} of {} changes from FHIR server {} to count index", applied, changes.size(), source);
+	}
+
+	private void add(Map<String, Map<SearchPredicate.Dimensions, Long>> deltas, String type,
+			SearchPredicate.Dimensions dimensions, long difference)
+	{
+		deltas.computeIfAbsent(type, t -> new HashMap<>()).merge(dimensions, difference, Long::sum);
+	}
+
+	// the version preceding the given version in the instance history, empty if none or deleted
+	private Optional<Resource> findPreviousVersion(IGenericClient client, IdType id, String versionId)
+	{
+		boolean found = false;
+
+		Bundle page = client.history().onInstance(id.toUnqualifiedVersionless()).returnBundle(Bundle.class)
+				.execute();
+		while (page != null)
+		{
+			for (Bundle.BundleEntryComponent entry : page.getEntry())
+			{
+				if (found)
+					return entry.hasResource() && !(entry.hasRequest()
+							&& Bundle.HTTPVerb.DELETE.equals(entry.getRequest().getMethod()))
+									? Optional.of(entry.getResource())
+									: Optional.empty();
+
+				// without known version the newest version is the changed one
+				found = versionId == null || versionId.equals(getVersionId(entry));
+			}
+
+			page = page.getLink(Bundle.LINK_NEXT) == null ? null
+					: client.loadPage().next(page).execute();
+		}
+
+		return Optional.empty();
+	}
+
+	private IdType getId(Bundle.BundleEntryComponent entry)
+	{
+		if (entry.hasResource())
+			return entry.getResource().getIdElement();
+		else if (entry.hasRequest() && entry.getRequest().hasUrl())
+			return new IdType(entry.getRequest().getUrl());
+		else if (entry.hasFullUrl())
+			return new IdType(entry.getFullUrl());
+		else
+			return null;
+	}
+
+	private String getVersionId(Bundle.BundleEntryComponent entry)
+	{
+		if (entry.hasResource() && entry.getResource().getMeta().hasVersionId())
+			return entry.getResource().getMeta().getVersionId();
+
+		IdType id = getId(entry);
+		if (id != null && id.hasVersionIdPart())
+			return id.getVersionIdPart();
+
+		if (entry.hasResponse() && entry.getResponse().hasEtag())
+			return entry.getResponse().getEtag().replaceFirst("^W/", "").replace("\"", "");
+
+		return null;
+	}
+
+	private Long getLastUpdated(Bundle.BundleEntryComponent entry)
+	{
+		if (entry.hasResource() && entry.getResource().getMeta().hasLastUpdated())
+			return entry.getResource().getMeta().getLastUpdated().getTime();
+		else if (entry.hasResponse() && entry.getResponse().hasLastModified())
+			return entry.getResponse().getLastModified().getTime();
+		else
+			return null;
+	}
+
+	private String toKey(int source, IdType id)
+	{
+		return source + "|" + id.toUnqualifiedVersionless().getValue();
+	}
+
+	private synchronized void load()
+	{
+		if (!Files.isReadable(file))
+			return;
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			String line = reader.readLine();
+			if (line == null || !line.equals(LINE_SOURCES + "\t" + sources.size() + "\t" + FORMAT_VERSION))
+			{
+				logger.info("Count index in '{}' created for other FHIR servers or by other version, rebuilding index",
+						file);
+				return;
+			}
+
+			Map<String, Map<SearchPredicate.Dimensions, Long>> loadedCounts = new HashMap<>();
+			Map<String, Long> loaded = new HashMap<>(), changed = new HashMap<>();
+			Set<String> types = new HashSet<>();
+			long[] loadedCursors = new long[cursors.length];
+			long loadedPoll = 0;
+
+			while ((line = reader.readLine()) != null)
+			{
+				String[] columns = line.split("\t", 2);
+				if (columns.length != 2)
+					continue;
+
+				switch (columns[0])
+				{
+					case LINE_POLL -> loadedPoll = Long.parseLong(columns[1]);
+					case LINE_CURSOR ->
+					{
+						String[] cursor = columns[1].split("\t");
+						loadedCursors[Integer.parseInt(cursor[0])] = Long.parseLong(cursor[1]);
+					}
+					case LINE_TYPE -> types.add(columns[1]);
+					case LINE_LOADED ->
+					{
+						String[] type = columns[1].split("\t");
+						loaded.put(type[0], Long.parseLong(type[1]));
+					}
+					case LINE_COUNT ->
+					{
+						String[] count = columns[1].split("\t", 3);
+						loadedCounts.computeIfAbsent(count[0], t -> new HashMap<>())
+								.put(SearchPredicate.Dimensions.fromKey(count[2]), Long.parseLong(count[1]));
+					}
+					case LINE_CHANGED ->
+					{
+						String[] resource = columns[1].split("\t");
+						changed.put(resource[0], Long.parseLong(resource[1]));
+					}
+					default -> logger.debug("Unknown line type '{}' in count index '{}'", columns[0], file);
+				}
+			}
+
+			counts.putAll(loadedCounts);
+			loadedTypes.putAll(loaded);
+			recentChanges.putAll(changed);
+			trackedTypes.addAll(types);
+			System.arraycopy(loadedCursors, 0, cursors, 0, cursors.length);
+			lastPoll = loadedPoll;
+
+			logger.info("Loaded count index of {} distinct dimensions for resource types {} from '{}'",
+					loadedCounts.values().stream().mapToInt(Map::size).sum(), trackedTypes, file);
+		}
+		catch (IOException | RuntimeException exception)
+		{
+			logger.warn("Could not load count index from '{}', rebuilding index - {}", file, exception.getMessage());
+
+			counts.clear();
+			loadedTypes.clear();
+			recentChanges.clear();
+			trackedTypes.clear();
+			Arrays.fill(cursors, 0);
+			lastPoll = 0;
+		}
+	}
+
+	// only the aggregated counts are persisted, the lock is held while copying them but not while writing
+	private void persist()
+	{
+		List<String[]> lines = new ArrayList<>();
+
+		synchronized (this)
+		{
+			lines.add(new String[] { LINE_POLL, String.valueOf(lastPoll) });
+
+			for (int source = 0; source < cursors.length; source++)
+				lines.add(new String[] { LINE_CURSOR, source + "\t" + cursors[source] });
+			for (String type : trackedTypes)
+				lines.add(new String[] { LINE_TYPE, type });
+			loadedTypes.forEach((type, loadStart) -> lines.add(new String[] { LINE_LOADED, type + "\t" + loadStart }));
+			counts.forEach((type, typeCounts) -> typeCounts.forEach((dimensions, count) -> lines
+					.add(new String[] { LINE_COUNT, type + "\t" + count + "\t" + dimensions.toKey() })));
+		}
+
+		recentChanges.forEach(
+				(resource, lastUpdated) -> lines.add(new String[] { LINE_CHANGED, resource + "\t" + lastUpdated }));
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+		{
+			writeLine(writer, LINE_SOURCES, sources.size() + "\t" + FORMAT_VERSION);
+
+			for (String[] line : lines)
+				writeLine(writer, line[0], line[1]);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not persist count index to '{}' - {}", file, exception.getMessage());
+			return;
+		}
+
+		try
+		{
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not persist count index to '{}' - {}", file, exception.getMessage());
+		}
+	}
+
+	private void writeLine(BufferedWriter writer, String key, String value) throws IOException
+	{
+		writer.write(key);
+		writer.write('\t');
+		writer.write(value);
+		writer.newLine();
+	}
+}
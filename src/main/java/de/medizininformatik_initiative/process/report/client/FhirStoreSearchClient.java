@@ -0,0 +1,433 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.rest.client.apache.ApacheHttpRequest;
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+
+public class FhirStoreSearchClient implements InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(FhirStoreSearchClient.class);
+
+	private static final double HEDGING_PERCENTILE = 0.95;
+
+	private static final class Replica
+	{
+		private final FhirClientFactory fhirClientFactory;
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private Replica(FhirClientFactory fhirClientFactory)
+		{
+			this.fhirClientFactory = fhirClientFactory;
+		}
+
+		private String getBaseUrl()
+		{
+			return fhirClientFactory.getFhirClient().getFhirBaseUrl();
+		}
+	}
+
+	// the http request of a hedged search attempt, aborted if the other attempt completes first
+	private static final class Attempt
+	{
+		private volatile HttpRequestBase request;
+		private volatile boolean aborted;
+
+		private void setRequest(HttpRequestBase request)
+		{
+			this.request = request;
+
+			if (aborted)
+				request.abort();
+		}
+
+		private void abort()
+		{
+			aborted = true;
+
+			HttpRequestBase current = request;
+			if (current != null)
+				current.abort();
+		}
+	}
+
+	// binds the http requests sent by the current thread to its hedged search attempt
+	private static final class AttemptInterceptor implements IClientInterceptor
+	{
+		private final ThreadLocal<Attempt> attempt = new ThreadLocal<>();
+
+		private void registerWith(IGenericClient client)
+		{
+			if (!client.getInterceptorService().getAllRegisteredInterceptors().contains(this))
+				client.registerInterceptor(this);
+		}
+
+		@Override
+		public void interceptRequest(IHttpRequest request)
+		{
+			Attempt current = attempt.get();
+
+			if (current != null && request instanceof ApacheHttpRequest apacheRequest)
+				current.setRequest(apacheRequest.getApacheRequest());
+		}
+
+		@Override
+		public void interceptResponse(IHttpResponse response)
+		{
+		}
+	}
+
+	private final List<Replica> replicas;
+	private final QueryTimings queryTimings;
+	private final CompressionInterceptor compressionInterceptor;
+	private final ResponseSizeGuard responseSizeGuard;
+	private final AsyncSearchPoller asyncSearchPoller;
+	private final boolean hedgingEnabled;
+	private final long hedgingMinDelayMillis;
+	private final int hedgingThreads;
+
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final AttemptInterceptor attemptInterceptor = new AttemptInterceptor();
+
+	private ScheduledExecutorService hedgingExecutor;
+
+	public FhirStoreSearchClient(List<FhirClientFactory> fhirClientFactories, QueryTimings queryTimings,
+			CompressionInterceptor compressionInterceptor, ResponseSizeGuard responseSizeGuard,
+			AsyncSearchPoller asyncSearchPoller, boolean hedgingEnabled, long hedgingMinDelayMillis,
+			int hedgingThreads)
+	{
+		this.replicas = fhirClientFactories == null ? null : fhirClientFactories.stream().map(Replica::new).toList();
+		this.queryTimings = queryTimings;
+		this.compressionInterceptor = compressionInterceptor;
+		this.responseSizeGuard = responseSizeGuard;
+		this.asyncSearchPoller = asyncSearchPoller;
+		this.hedgingEnabled = hedgingEnabled;
+		this.hedgingMinDelayMillis = hedgingMinDelayMillis;
+		this.hedgingThreads = hedgingThreads;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(replicas, "fhirClientFactories");
+		Objects.requireNonNull(queryTimings, "queryTimings");
+		Objects.requireNonNull(compressionInterceptor, "compressionInterceptor");
+		Objects.requireNonNull(responseSizeGuard, "responseSizeGuard");
+		Objects.requireNonNull(asyncSearchPoller, "asyncSearchPoller");
+
+		if (replicas.isEmpty())
+			throw new IllegalArgumentException("fhirClientFactories empty");
+
+		if (!isHedging())
+			return;
+
+		if (hedgingThreads < 1)
+			throw new IllegalArgumentException("hedgingThreads < 1");
+
+		// hedged requests are sent by at most one thread per parallel report search request
+		AtomicInteger threadNumber = new AtomicInteger();
+		hedgingExecutor = Executors.newScheduledThreadPool(hedgingThreads, r ->
+		{
+			Thread thread = new Thread(r, "report-hedged-search-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void destroy()
+	{
+		if (hedgingExecutor != null)
+			hedgingExecutor.shutdownNow();
+	}
+
+	private boolean isHedging()
+	{
+		return hedgingEnabled && replicas.size() > 1;
+	}
+
+	public String getBaseUrls()
+	{
+		return replicas.stream().map(Replica::getBaseUrl).collect(Collectors.joining(", "));
+	}
+
+	public void testConnections()
+	{
+		replicas.forEach(r -> r.fhirClientFactory.testConnection());
+	}
+
+	public void warmUp(String url)
+	{
+		replicas.forEach(r -> r.fhirClientFactory.getFhirClient().search(url));
+	}
+
+	public Resource search(String url)
+	{
+		if (!isHedging())
+			return search(selectReplica(null), url);
+
+		OptionalLong percentile = queryTimings.getPercentile(url, HEDGING_PERCENTILE);
+
+		if (percentile.isEmpty())
+			return search(selectReplica(null), url);
+
+		return searchHedged(url, Math.max(hedgingMinDelayMillis, percentile.getAsLong()));
+	}
+
+	// the first attempt is sent by the calling thread, the hedged attempt by the hedging executor after the delay,
+	// the http request of the slower attempt is aborted once the other attempt succeeded
+	private Resource searchHedged(String url, long hedgingDelayMillis)
+	{
+		Replica first = selectReplica(null);
+		Attempt firstAttempt = new Attempt();
+		Attempt secondAttempt = new Attempt();
+
+		CompletableFuture<Resource> result = new CompletableFuture<>();
+		AtomicBoolean secondStarted = new AtomicBoolean();
+		AtomicInteger failures = new AtomicInteger();
+
+		ScheduledFuture<?> hedge = hedgingExecutor.schedule(() ->
+		{
+			if (!secondStarted.compareAndSet(false, true))
+				return;
+
+			Replica second = selectReplica(first);
+			logger.debug("Search request '{}' at '{}' exceeded {} ms, sending hedged request to '{}'", url,
+					first.getBaseUrl(), hedgingDelayMillis, second.getBaseUrl());
+
+			try
+			{
+				result.complete(search(second, url, secondAttempt));
+				firstAttempt.abort();
+			}
+			catch (RuntimeException exception)
+			{
+				if (failures.incrementAndGet() == 2)
+					result.completeExceptionally(exception);
+			}
+		}, hedgingDelayMillis, TimeUnit.MILLISECONDS);
+
+		try
+		{
+			Resource resource = search(first, url, firstAttempt);
+
+			secondStarted.set(true);
+			hedge.cancel(false);
+			secondAttempt.abort();
+			result.complete(resource);
+
+			return resource;
+		}
+		catch (RuntimeException exception)
+		{
+			// without hedged request the failure of the first attempt is final
+			if (secondStarted.compareAndSet(false, true))
+			{
+				hedge.cancel(false);
+				throw exception;
+			}
+
+			if (failures.incrementAndGet() == 2)
+				result.completeExceptionally(exception);
+		}
+
+		try
+		{
+			return result.join();
+		}
+		catch (CompletionException exception)
+		{
+			throw unwrap(exception);
+		}
+	}
+
+	private Resource search(Replica replica, String url, Attempt attempt)
+	{
+		attemptInterceptor.attempt.set(attempt);
+
+		try
+		{
+			return search(replica, url);
+		}
+		finally
+		{
+			attemptInterceptor.attempt.remove();
+		}
+	}
+
+	private Resource search(Replica replica, String url)
+	{
+		replica.outstanding.incrementAndGet();
+		long start = System.currentTimeMillis();
+
+		try
+		{
+			FhirClient client = replica.fhirClientFactory.getFhirClient();
+			compressionInterceptor.registerWith(client.getGenericFhirClient());
+			responseSizeGuard.registerWith(client.getGenericFhirClient());
+			attemptInterceptor.registerWith(client.getGenericFhirClient());
+
+			Resource result = client.search(url);
+			responseSizeGuard.checkEntries(url, result);
+			queryTimings.record(url, System.currentTimeMillis() - start);
+
+			return result;
+		}
+		catch (RuntimeException exception)
+		{
+			throw toSearchException(replica, url, exception);
+		}
+		finally
+		{
+			replica.outstanding.decrementAndGet();
+		}
+	}
+
+	public CompletableFuture<Resource> searchAsync(String url)
+	{
+		Replica replica = selectReplica(null);
+		IGenericClient client = replica.fhirClientFactory.getFhirClient().getGenericFhirClient();
+		compressionInterceptor.registerWith(client);
+		responseSizeGuard.registerWith(client);
+		asyncSearchPoller.getAsyncResponseInterceptor().registerWith(client);
+
+		long start = System.currentTimeMillis();
+
+		try
+		{
+			Bundle result = client.search().byUrl(url)
+					.withAdditionalHeader(AsyncResponseInterceptor.HEADER_PREFER,
+							AsyncResponseInterceptor.PREFER_RESPOND_ASYNC)
+					.returnBundle(Bundle.class).execute();
+
+			// server ignored the respond-async preference and answered synchronously
+			responseSizeGuard.checkEntries(url, result);
+			queryTimings.record(url, System.currentTimeMillis() - start);
+
+			return CompletableFuture.completedFuture(result);
+		}
+		catch (RuntimeException exception)
+		{
+			AsyncResponseInterceptor.Pending pending = AsyncResponseInterceptor.findPending(exception);
+
+			if (pending == null)
+				return CompletableFuture.failedFuture(toSearchException(replica, url, exception));
+
+			return asyncSearchPoller.poll(client, url, pending, start).handle((result, throwable) ->
+			{
+				if (throwable != null)
+					throw toSearchException(replica, url, unwrap(throwable));
+
+				responseSizeGuard.checkEntries(url, result);
+				return result;
+			});
+		}
+	}
+
+	public boolean hasChanges(String resourceType, Date since)
+	{
+		Replica replica = selectReplica(null);
+		FhirClient client = replica.fhirClientFactory.getFhirClient();
+		compressionInterceptor.registerWith(client.getGenericFhirClient());
+		responseSizeGuard.registerWith(client.getGenericFhirClient());
+
+		String instant = DateTimeFormatter.ISO_INSTANT.format(since.toInstant());
+
+		try
+		{
+			// the type history also contains deleted resources
+			Resource history = client.search(resourceType + "/_history?_since=" + instant + "&_count=1");
+
+			if (history instanceof Bundle bundle)
+				return bundle.hasEntry() || bundle.getTotal() > 0;
+		}
+		catch (BaseServerResponseException exception)
+		{
+			logger.debug("FHIR store at '{}' does not support history of resource type {}, using _lastUpdated - {}",
+					replica.getBaseUrl(), resourceType, exception.getMessage());
+		}
+
+		Resource result = client.search(resourceType + "?_lastUpdated=gt" + instant + "&_summary=count&_count=0");
+		return !(result instanceof Bundle bundle) || bundle.getTotal() > 0;
+	}
+
+	private RuntimeException toSearchException(Replica replica, String url, RuntimeException exception)
+	{
+		ResponseSizeExceededException sizeExceeded = findSizeExceeded(exception);
+
+		if (sizeExceeded == null)
+			return exception;
+
+		logger.warn("FHIR store at '{}' misbehaves on search request '{}' - {}", replica.getBaseUrl(), url,
+				sizeExceeded.getMessage());
+		return sizeExceeded;
+	}
+
+	private ResponseSizeExceededException findSizeExceeded(Throwable throwable)
+	{
+		// HAPI may wrap exceptions thrown while reading the response body
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof ResponseSizeExceededException sizeExceeded)
+				return sizeExceeded;
+		}
+
+		return null;
+	}
+
+	private Replica selectReplica(Replica excluded)
+	{
+		// least outstanding requests, ties are broken round robin
+		int offset = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+		Replica selected = null;
+
+		for (int i = 0; i < replicas.size(); i++)
+		{
+			Replica replica = replicas.get((offset + i) % replicas.size());
+
+			if (replica != excluded
+					&& (selected == null || replica.outstanding.get() < selected.outstanding.get()))
+				selected = replica;
+		}
+
+		return selected;
+	}
+
+	private RuntimeException unwrap(Throwable throwable)
+	{
+		Throwable cause = throwable;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+				&& cause.getCause() != null)
+			cause = cause.getCause();
+
+		return cause instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(cause);
+	}
+}
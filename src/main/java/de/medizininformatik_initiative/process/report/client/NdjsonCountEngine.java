@@ -0,0 +1,223 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+
+public class NdjsonCountEngine implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(NdjsonCountEngine.class);
+
+	private static final String NDJSON_SUFFIX = ".ndjson";
+	private static final String NDJSON_GZIP_SUFFIX = ".ndjson.gz";
+
+	private final FhirContext fhirContext;
+	private final Path directory;
+	private final long maxAgeMillis;
+
+	public NdjsonCountEngine(FhirContext fhirContext, Path directory, long maxAgeMillis)
+	{
+		this.fhirContext = fhirContext;
+		this.directory = directory;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(fhirContext, "fhirContext");
+
+		if (directory != null && !Files.isDirectory(directory))
+			throw new IllegalArgumentException("NDJSON directory " + directory + " not a directory");
+		if (maxAgeMillis <= 0)
+			throw new IllegalArgumentException("maxAgeMillis <= 0");
+	}
+
+	public boolean isEnabled()
+	{
+		return directory != null;
+	}
+
+	// returns searchset Bundles with totals for all urls that could be evaluated, other urls have to be searched
+	public Map<String, Resource> count(List<String> urls)
+	{
+		if (!isEnabled())
+			return Map.of();
+
+		Map<String, SearchPredicate> predicates = new LinkedHashMap<>();
+		urls.stream().distinct().forEach(url -> SearchPredicate.compile(fhirContext, url)
+				.ifPresentOrElse(p -> predicates.put(url, p),
+						() -> logger.debug("Report search request '{}' not supported by NDJSON engine", url)));
+
+		Map<String, List<Map.Entry<String, SearchPredicate>>> predicatesByType = predicates.entrySet().stream()
+				.collect(Collectors.groupingBy(e -> e.getValue().getResourceType()));
+
+		Map<String, Resource> results = new HashMap<>();
+		int scans = 0;
+		for (Map.Entry<String, List<Map.Entry<String, SearchPredicate>>> type : predicatesByType.entrySet())
+		{
+			List<Path> files = getFiles(type.getKey());
+
+			if (files.isEmpty())
+			{
+				logger.debug("No NDJSON file for resource type {} in '{}'", type.getKey(), directory);
+				continue;
+			}
+
+			// counts of outdated exports would be reported as current
+			long age = System.currentTimeMillis() - getOldestLastModified(files);
+			if (age > maxAgeMillis)
+			{
+				logger.info("NDJSON files for resource type {} in '{}' older than {} ms, executing search requests "
+						+ "instead", type.getKey(), directory, maxAgeMillis);
+				continue;
+			}
+
+			scan(type.getKey(), files, type.getValue()).ifPresent(results::putAll);
+			scans++;
+		}
+
+		logger.info("Evaluated {} of {} report search requests with {} NDJSON scans in '{}'", results.size(),
+				urls.size(), scans, directory);
+
+		return results;
+	}
+
+	private Optional<Map<String, Resource>> scan(String resourceType, List<Path> files,
+			List<Map.Entry<String, SearchPredicate>> predicates)
+	{
+		long start = System.currentTimeMillis();
+		long[] counts = new long[predicates.size()];
+		long resources = 0;
+		IParser parser = fhirContext.newJsonParser();
+
+		try
+		{
+			for (Path file : files)
+			{
+				try (BufferedReader reader = newReader(file))
+				{
+					String line;
+					while ((line = reader.readLine()) != null)
+					{
+						if (line.isBlank())
+							continue;
+
+						Resource resource = (Resource) parser.parseResource(line);
+						SearchPredicate.Dimensions dimensions = SearchPredicate.extract(fhirContext, resource);
+						resources++;
+
+						// all predicates of the resource type are evaluated in the same pass
+						for (int i = 0; i < predicates.size(); i++)
+						{
+							if (predicates.get(i).getValue().test(dimensions))
+								counts[i]++;
+						}
+					}
+				}
+			}
+		}
+		catch (IOException | RuntimeException exception)
+		{
+			logger.warn("Could not scan NDJSON files for resource type {}, executing search requests instead - {}",
+					resourceType, exception.getMessage());
+			return Optional.empty();
+		}
+
+		logger.debug("Scanned {} {} resources for {} report search requests in {} ms", resources, resourceType,
+				predicates.size(), System.currentTimeMillis() - start);
+
+		Date lastUpdated = new Date(getOldestLastModified(files));
+		Map<String, Resource> results = new HashMap<>();
+		for (int i = 0; i < predicates.size(); i++)
+		{
+			// totals above the maximum of Bundle.total are reported as approximate maximum
+			Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+			bundle.setTotal((int) Math.min(counts[i], Integer.MAX_VALUE));
+			if (counts[i] > Integer.MAX_VALUE)
+				bundle.getTotalElement().addExtension(ConstantsReport.EXTENSION_REPORT_COUNT_APPROXIMATE_URL,
+						new BooleanType(true));
+			bundle.getMeta().setLastUpdated(lastUpdated);
+
+			results.put(predicates.get(i).getKey(), bundle);
+		}
+
+		return Optional.of(results);
+	}
+
+	private List<Path> getFiles(String resourceType)
+	{
+		try (Stream<Path> files = Files.list(directory))
+		{
+			// matches bulk export file names like Observation.ndjson, Observation-1.ndjson and Observation_2.ndjson.gz
+			return files.filter(Files::isRegularFile).filter(f ->
+			{
+				String name = f.getFileName().toString();
+				String base = name.endsWith(NDJSON_GZIP_SUFFIX)
+						? name.substring(0, name.length() - NDJSON_GZIP_SUFFIX.length())
+						: name.endsWith(NDJSON_SUFFIX) ? name.substring(0, name.length() - NDJSON_SUFFIX.length())
+								: null;
+
+				return base != null && (base.equals(resourceType) || base.startsWith(resourceType + "-")
+						|| base.startsWith(resourceType + "_") || base.startsWith(resourceType + "."));
+			}).sorted().toList();
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not list NDJSON directory '{}' - {}", directory, exception.getMessage());
+			return List.of();
+		}
+	}
+
+	private BufferedReader newReader(Path file) throws IOException
+	{
+		InputStream in = Files.newInputStream(file);
+		if (file.getFileName().toString().endsWith(NDJSON_GZIP_SUFFIX))
+			in = new GZIPInputStream(in);
+
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	// files without readable modification time are treated as outdated
+	private long getOldestLastModified(List<Path> files)
+	{
+		return files.stream().mapToLong(this::getLastModified).min().orElse(0);
+	}
+
+	private long getLastModified(Path file)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(file).toMillis();
+		}
+		catch (IOException exception)
+		{
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+public class QueryTimings implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(QueryTimings.class);
+
+	private static final int MAX_SAMPLES = 20;
+	private static final int MIN_SAMPLES = 3;
+
+	private final Path file;
+	private final Map<String, Deque<Long>> durations = new ConcurrentHashMap<>();
+
+	public QueryTimings(Path file)
+	{
+		this.file = file;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		if (file == null || !Files.isReadable(file))
+			return;
+
+		try
+		{
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+			{
+				String[] columns = line.split("\t");
+
+				if (columns.length == 2)
+					Arrays.stream(columns[1].split(",")).map(Long::parseLong).forEach(d -> record(columns[0], d));
+			}
+
+			logger.info("Loaded query timings for {} search requests from '{}'", durations.size(), file);
+		}
+		catch (IOException | NumberFormatException exception)
+		{
+			logger.warn("Could not load query timings from '{}' - {}", file, exception.getMessage());
+		}
+	}
+
+	public void record(String url, long durationMillis)
+	{
+		Deque<Long> samples = durations.computeIfAbsent(url, k -> new ArrayDeque<>());
+
+		synchronized (samples)
+		{
+			samples.addLast(durationMillis);
+
+			while (samples.size() > MAX_SAMPLES)
+				samples.removeFirst();
+		}
+	}
+
+	public OptionalLong getPercentile(String url, double percentile)
+	{
+		Deque<Long> samples = durations.get(url);
+
+		if (samples == null)
+			return OptionalLong.empty();
+
+		long[] sorted;
+		synchronized (samples)
+		{
+			if (samples.size() < MIN_SAMPLES)
+				return OptionalLong.empty();
+
+			sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+		}
+
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return OptionalLong.of(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+	}
+
+	// report executions and search Bundle precomputations may persist concurrently
+	public synchronized void persist()
+	{
+		if (file == null)
+			return;
+
+		List<String> lines = durations.entrySet().stream().map(e ->
+		{
+			synchronized (e.getValue())
+			{
+				return e.getKey() + "\t"
+						+ e.getValue().stream().map(String::valueOf).collect(Collectors.joining(","));
+			}
+		}).toList();
+
+		try
+		{
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(temp, lines, StandardCharsets.UTF_8);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not persist query timings to '{}' - {}", file, exception.getMessage());
+		}
+	}
+}
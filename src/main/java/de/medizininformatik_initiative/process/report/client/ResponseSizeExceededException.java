@@ -0,0 +1,15 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+public class ResponseSizeExceededException extends BaseServerResponseException
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final int STATUS_CODE = 413;
+
+	public ResponseSizeExceededException(String message)
+	{
+		super(STATUS_CODE, message);
+	}
+}
@@ -0,0 +1,146 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+
+// limits the decoded size of all responses of clients it is registered with, including metadata requests, and the
+// number of entries of count responses
+public class ResponseSizeGuard implements IClientInterceptor
+{
+	private static final Logger logger = LoggerFactory.getLogger(ResponseSizeGuard.class);
+
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	private static final String ENCODING_IDENTITY = "identity";
+
+	private final long maxBytes;
+	private final int maxEntries;
+
+	public ResponseSizeGuard(long maxBytes, int maxEntries)
+	{
+		this.maxBytes = maxBytes;
+		this.maxEntries = maxEntries;
+	}
+
+	public void registerWith(IGenericClient client)
+	{
+		if (!client.getInterceptorService().getAllRegisteredInterceptors().contains(this))
+			client.registerInterceptor(this);
+	}
+
+	@Override
+	public void interceptRequest(IHttpRequest request)
+	{
+	}
+
+	@Override
+	public void interceptResponse(IHttpResponse response) throws IOException
+	{
+		if (maxBytes <= 0)
+			return;
+
+		// the Content-Length of compressed responses is not the decoded size, only the stream check applies
+		List<String> contentLength = response.getHeaders(HEADER_CONTENT_LENGTH);
+		if (contentLength != null && !contentLength.isEmpty() && !isEncoded(response))
+		{
+			try
+			{
+				long length = Long.parseLong(contentLength.get(0).trim());
+
+				// closing the unread response aborts the transfer
+				if (length > maxBytes)
+					throw exceeded("Content-Length " + length + " exceeds maximum of " + maxBytes + " bytes");
+			}
+			catch (NumberFormatException exception)
+			{
+				logger.debug("Could not parse Content-Length header '{}'", contentLength.get(0));
+			}
+		}
+
+		// chunked responses have no Content-Length, count bytes while HAPI parses the body
+		if (response.getResponse() instanceof HttpResponse httpResponse && httpResponse.getEntity() != null)
+		{
+			httpResponse.setEntity(new HttpEntityWrapper(httpResponse.getEntity())
+			{
+				@Override
+				public InputStream getContent() throws IOException
+				{
+					return new LimitedInputStream(super.getContent());
+				}
+			});
+		}
+	}
+
+	private boolean isEncoded(IHttpResponse response)
+	{
+		List<String> encoding = response.getHeaders(HEADER_CONTENT_ENCODING);
+		return encoding != null && !encoding.isEmpty() && !encoding.get(0).isBlank()
+				&& !ENCODING_IDENTITY.equalsIgnoreCase(encoding.get(0).trim());
+	}
+
+	public void checkEntries(String url, Resource result)
+	{
+		if (maxEntries >= 0 && result instanceof Bundle bundle && bundle.getEntry().size() > maxEntries)
+			throw exceeded("Response to count request '" + url + "' contains " + bundle.getEntry().size()
+					+ " entries, maximum is " + maxEntries);
+	}
+
+	private ResponseSizeExceededException exceeded(String message)
+	{
+		return new ResponseSizeExceededException("FHIR store ignored count-only request semantics - " + message);
+	}
+
+	private final class LimitedInputStream extends FilterInputStream
+	{
+		private long read;
+
+		private LimitedInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+
+			if (b >= 0)
+				count(1);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int n = super.read(buffer, offset, length);
+
+			if (n > 0)
+				count(n);
+
+			return n;
+		}
+
+		private void count(long n)
+		{
+			read += n;
+
+			if (read > maxBytes)
+				throw exceeded("response body exceeds maximum of " + maxBytes + " bytes");
+		}
+	}
+}
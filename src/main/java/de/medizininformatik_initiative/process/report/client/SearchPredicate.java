@@ -0,0 +1,350 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.BaseDateTimeType;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
+
+public final class SearchPredicate implements Predicate<Resource>
+{
+	private static final String PROFILE_SEARCH_PARAM = "_profile";
+	private static final String TYPE_SEARCH_PARAM = "type";
+	private static final String MODIFIER_BELOW = ":below";
+	private static final String DATE_EQUALITY_FILTER = "eq";
+	private static final String OPEN = "*";
+	private static final List<String> IGNORED_SEARCH_PARAMS = List.of("_summary", "_count", "_total");
+
+	private static final String COMPONENT_SEPARATOR = "\u001e";
+	private static final String VALUE_SEPARATOR = "\u001f";
+
+	// the values of a resource relevant for report search requests, codes are only kept for Encounter.type
+	public record Dimensions(String resourceType, Set<String> profiles, Map<String, Set<String>> tokens,
+			Map<String, Set<String>> dates)
+	{
+		public String toKey()
+		{
+			StringBuilder key = new StringBuilder(resourceType);
+			key.append(COMPONENT_SEPARATOR).append(String.join(VALUE_SEPARATOR, profiles));
+			tokens.forEach((param, values) -> key.append(COMPONENT_SEPARATOR).append("t.").append(param)
+					.append(VALUE_SEPARATOR).append(String.join(VALUE_SEPARATOR, values)));
+			dates.forEach((param, values) -> key.append(COMPONENT_SEPARATOR).append("d.").append(param)
+					.append(VALUE_SEPARATOR).append(String.join(VALUE_SEPARATOR, values)));
+
+			return key.toString();
+		}
+
+		public static Dimensions fromKey(String key)
+		{
+			String[] components = key.split(COMPONENT_SEPARATOR, -1);
+			Map<String, Set<String>> tokens = new TreeMap<>();
+			Map<String, Set<String>> dates = new TreeMap<>();
+
+			for (int i = 2; i < components.length; i++)
+			{
+				String[] paramAndValues = components[i].split(VALUE_SEPARATOR, 2);
+				Set<String> values = split(paramAndValues.length > 1 ? paramAndValues[1] : "");
+
+				if (paramAndValues[0].startsWith("t."))
+					tokens.put(paramAndValues[0].substring(2), values);
+				else if (paramAndValues[0].startsWith("d."))
+					dates.put(paramAndValues[0].substring(2), values);
+			}
+
+			return new Dimensions(components[0], split(components[1]), tokens, dates);
+		}
+
+		private static Set<String> split(String values)
+		{
+			return values.isEmpty() ? new TreeSet<>() : new TreeSet<>(Arrays.asList(values.split(VALUE_SEPARATOR)));
+		}
+	}
+
+	private final FhirContext fhirContext;
+	private final String resourceType;
+	private final Predicate<Dimensions> predicate;
+
+	private SearchPredicate(FhirContext fhirContext, String resourceType, Predicate<Dimensions> predicate)
+	{
+		this.fhirContext = fhirContext;
+		this.resourceType = resourceType;
+		this.predicate = predicate;
+	}
+
+	public String getResourceType()
+	{
+		return resourceType;
+	}
+
+	@Override
+	public boolean test(Resource resource)
+	{
+		return resource.fhirType().equals(resourceType) && test(extract(fhirContext, resource));
+	}
+
+	public boolean test(Dimensions dimensions)
+	{
+		return dimensions.resourceType().equals(resourceType) && predicate.test(dimensions);
+	}
+
+	public static Dimensions extract(FhirContext fhirContext, Resource resource)
+	{
+		RuntimeResourceDefinition definition = fhirContext.getResourceDefinition(resource);
+
+		Set<String> profiles = resource.getMeta().getProfile().stream().filter(p -> p.hasValue())
+				.map(p -> p.getValue()).collect(Collectors.toCollection(TreeSet::new));
+
+		Map<String, Set<String>> tokens = new TreeMap<>();
+		for (String param : CheckSearchBundle.TOKEN_SEARCH_PARAMS)
+		{
+			boolean keepCode = isEncounterType(definition.getName(), param);
+			getPaths(definition, param).ifPresent(paths -> tokens.put(param,
+					getCodings(evaluate(resource, paths)).map(c -> toToken(c, keepCode))
+							.collect(Collectors.toCollection(TreeSet::new))));
+		}
+
+		Map<String, Set<String>> dates = new TreeMap<>();
+		for (String param : CheckSearchBundle.DATE_SEARCH_PARAMS)
+		{
+			getPaths(definition, param).ifPresent(paths -> dates.put(param, evaluate(resource, paths).stream()
+					.map(SearchPredicate::toYearRange).filter(r -> r != null)
+					.collect(Collectors.toCollection(TreeSet::new))));
+		}
+
+		return new Dimensions(definition.getName(), profiles, tokens, dates);
+	}
+
+	// empty if the search request uses parameters, modifiers or values that can not be evaluated locally
+	public static Optional<SearchPredicate> compile(FhirContext fhirContext, String url)
+	{
+		UriComponents uriComponents = UriComponentsBuilder.fromUriString(url).build();
+		String resourceType = uriComponents.getPath();
+
+		RuntimeResourceDefinition definition;
+		try
+		{
+			definition = fhirContext.getResourceDefinition(resourceType);
+		}
+		catch (RuntimeException exception)
+		{
+			return Optional.empty();
+		}
+
+		MultiValueMap<String, String> queryParams = uriComponents.getQueryParams();
+		List<Predicate<Dimensions>> predicates = new ArrayList<>();
+
+		for (Map.Entry<String, List<String>> param : queryParams.entrySet())
+		{
+			if (IGNORED_SEARCH_PARAMS.contains(param.getKey()))
+				continue;
+
+			for (String value : param.getValue())
+			{
+				Optional<Predicate<Dimensions>> predicate = compileParam(definition, param.getKey(), decode(value));
+
+				if (predicate.isEmpty())
+					return Optional.empty();
+
+				predicates.add(predicate.get());
+			}
+		}
+
+		return Optional.of(new SearchPredicate(fhirContext, definition.getName(),
+				d -> predicates.stream().allMatch(p -> p.test(d))));
+	}
+
+	private static Optional<Predicate<Dimensions>> compileParam(RuntimeResourceDefinition definition, String name,
+			String value)
+	{
+		String[] nameAndModifier = name.split(":", 2);
+		String paramName = nameAndModifier[0];
+		String modifier = nameAndModifier.length > 1 ? ":" + nameAndModifier[1] : null;
+
+		// comma separated values are combined with OR
+		List<String> values = Arrays.asList(value.split(","));
+
+		if (PROFILE_SEARCH_PARAM.equals(paramName))
+		{
+			if (modifier != null && !MODIFIER_BELOW.equals(modifier))
+				return Optional.empty();
+
+			boolean below = modifier != null;
+			return Optional.of(d -> values.stream().anyMatch(v -> matchesProfile(d.profiles(), v, below)));
+		}
+
+		if (modifier != null || getPaths(definition, paramName).isEmpty())
+			return Optional.empty();
+
+		if (CheckSearchBundle.TOKEN_SEARCH_PARAMS.contains(paramName))
+		{
+			// codes are only kept for Encounter.type, all other token searches have to be limited to a system
+			boolean codeAllowed = isEncounterType(definition.getName(), paramName);
+			if (values.stream().anyMatch(v -> !v.contains("|") || (!codeAllowed && !v.endsWith("|"))))
+				return Optional.empty();
+
+			return Optional.of(d -> values.stream()
+					.anyMatch(v -> matchesToken(d.tokens().getOrDefault(paramName, Collections.emptySet()), v)));
+		}
+
+		if (CheckSearchBundle.DATE_SEARCH_PARAMS.contains(paramName))
+		{
+			List<String> years = new ArrayList<>();
+			for (String v : values)
+			{
+				String year = v.startsWith(DATE_EQUALITY_FILTER) ? v.substring(DATE_EQUALITY_FILTER.length()) : "";
+				if (!year.matches("\\d{4}"))
+					return Optional.empty();
+
+				// eq matches if the range of the resource value is fully contained in the searched year
+				years.add(year + ":" + year);
+			}
+
+			return Optional.of(d -> years.stream()
+					.anyMatch(y -> d.dates().getOrDefault(paramName, Collections.emptySet()).contains(y)));
+		}
+
+		return Optional.empty();
+	}
+
+	private static Optional<List<List<String>>> getPaths(RuntimeResourceDefinition definition, String paramName)
+	{
+		RuntimeSearchParam searchParam = definition.getSearchParam(paramName);
+		if (searchParam == null || searchParam.getPath() == null)
+			return Optional.empty();
+
+		List<List<String>> paths = new ArrayList<>();
+		for (String expression : searchParam.getPath().split("\\|"))
+		{
+			String path = expression.trim();
+			if (path.startsWith("(") && path.endsWith(")"))
+				path = path.substring(1, path.length() - 1).trim();
+
+			// type filters on choice elements are resolved by the value types accepted during matching
+			path = path.replaceAll("\\s+as\\s+\\w+$", "").replaceAll("\\.as\\(\\w+\\)", "");
+
+			if (!path.startsWith(definition.getName() + "."))
+				continue;
+
+			List<String> segments = Arrays.asList(path.substring(definition.getName().length() + 1).split("\\."));
+			if (segments.stream().anyMatch(s -> !s.matches("\\w+")))
+				return Optional.empty();
+
+			paths.add(segments);
+		}
+
+		return paths.isEmpty() ? Optional.empty() : Optional.of(paths);
+	}
+
+	private static List<Base> evaluate(Resource resource, List<List<String>> paths)
+	{
+		return paths.stream().flatMap(path ->
+		{
+			Stream<Base> values = Stream.of(resource);
+			for (String segment : path)
+				values = values.flatMap(v -> getChildren(v, segment));
+
+			return values;
+		}).toList();
+	}
+
+	private static Stream<Base> getChildren(Base base, String name)
+	{
+		Property property = base.getNamedProperty(name);
+		return property == null ? Stream.empty() : property.getValues().stream();
+	}
+
+	private static Stream<Coding> getCodings(List<Base> values)
+	{
+		return values.stream().flatMap(v ->
+		{
+			if (v instanceof CodeableConcept codeableConcept)
+				return codeableConcept.getCoding().stream();
+			else if (v instanceof Coding coding)
+				return Stream.of(coding);
+			else
+				return Stream.empty();
+		});
+	}
+
+	private static String toToken(Coding coding, boolean keepCode)
+	{
+		return (coding.hasSystem() ? coding.getSystem() : "") + "|"
+				+ (keepCode && coding.hasCode() ? coding.getCode() : "");
+	}
+
+	private static String toYearRange(Base value)
+	{
+		if (value instanceof BaseDateTimeType dateTime)
+			return dateTime.getValue() == null ? null : dateTime.getYear() + ":" + dateTime.getYear();
+		else if (value instanceof Period period)
+			return toYear(period.getStartElement()) + ":" + toYear(period.getEndElement());
+		else
+			return null;
+	}
+
+	private static String toYear(BaseDateTimeType dateTime)
+	{
+		// a missing period boundary extends the range indefinitely
+		return dateTime.getValue() == null ? OPEN : String.valueOf(dateTime.getYear());
+	}
+
+	private static boolean matchesProfile(Set<String> profiles, String value, boolean below)
+	{
+		String[] searchProfile = value.split("\\|", 2);
+
+		return profiles.stream().map(p -> p.split("\\|", 2)).anyMatch(p ->
+		{
+			if (!searchProfile[0].equals(p[0]))
+				return false;
+			if (searchProfile.length == 1)
+				return true;
+			if (p.length == 1)
+				return false;
+
+			return below ? p[1].equals(searchProfile[1]) || p[1].startsWith(searchProfile[1] + ".")
+					: p[1].equals(searchProfile[1]);
+		});
+	}
+
+	private static boolean matchesToken(Set<String> tokens, String value)
+	{
+		// system| matches any code of the system
+		return value.endsWith("|") ? tokens.stream().anyMatch(t -> t.startsWith(value)) : tokens.contains(value);
+	}
+
+	private static boolean isEncounterType(String resourceType, String paramName)
+	{
+		return TYPE_SEARCH_PARAM.equals(paramName) && ResourceType.Encounter.name().equals(resourceType);
+	}
+
+	private static String decode(String value)
+	{
+		return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,195 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+public class ShardedFhirStoreSearchClient implements InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ShardedFhirStoreSearchClient.class);
+
+	private final List<FhirStoreSearchClient> shards;
+	private final boolean manageShards;
+
+	private final ExecutorService shardExecutor = Executors.newCachedThreadPool(r ->
+	{
+		Thread thread = new Thread(r, "report-sharded-search");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// shards created for this client are initialized and destroyed with it, shards managed as beans are not
+	public ShardedFhirStoreSearchClient(List<FhirStoreSearchClient> shards, boolean manageShards)
+	{
+		this.shards = shards;
+		this.manageShards = manageShards;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(shards, "shards");
+
+		if (shards.isEmpty())
+			throw new IllegalArgumentException("shards empty");
+
+		if (manageShards)
+		{
+			for (FhirStoreSearchClient shard : shards)
+				shard.afterPropertiesSet();
+		}
+	}
+
+	@Override
+	public void destroy()
+	{
+		shardExecutor.shutdownNow();
+
+		if (manageShards)
+		{
+			for (FhirStoreSearchClient shard : shards)
+				shard.destroy();
+		}
+	}
+
+	public String getBaseUrls()
+	{
+		return shards.stream().map(FhirStoreSearchClient::getBaseUrls).collect(Collectors.joining(" + "));
+	}
+
+	public void testConnections()
+	{
+		shards.forEach(FhirStoreSearchClient::testConnections);
+	}
+
+	public void warmUp(String url)
+	{
+		shards.forEach(s -> s.warmUp(url));
+	}
+
+	public Resource search(String url)
+	{
+		if (shards.size() == 1)
+			return shards.get(0).search(url);
+
+		List<CompletableFuture<Resource>> results = shards.stream()
+				.map(s -> CompletableFuture.supplyAsync(() -> s.search(url), shardExecutor)).toList();
+
+		return merge(url, results.stream().map(this::join).toList());
+	}
+
+	public CompletableFuture<Resource> searchAsync(String url)
+	{
+		if (shards.size() == 1)
+			return shards.get(0).searchAsync(url);
+
+		List<CompletableFuture<Resource>> results = shards.stream().map(s -> s.searchAsync(url)).toList();
+
+		return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+				.thenApply(v -> merge(url, results.stream().map(CompletableFuture::join).toList()));
+	}
+
+	public boolean hasChanges(String resourceType, Date since)
+	{
+		return shards.stream().anyMatch(s -> s.hasChanges(resourceType, since));
+	}
+
+	private Resource join(CompletableFuture<Resource> result)
+	{
+		try
+		{
+			return result.join();
+		}
+		catch (CompletionException exception)
+		{
+			if (exception.getCause() instanceof RuntimeException runtimeException)
+				throw runtimeException;
+			else
+				throw exception;
+		}
+	}
+
+	private Resource merge(String url, List<Resource> results)
+	{
+		if (results.stream().allMatch(r -> r instanceof Bundle))
+			return mergeBundles(results.stream().map(r -> (Bundle) r).toList());
+
+		if (results.stream().allMatch(r -> r instanceof CapabilityStatement))
+			return mergeCapabilityStatements(results.stream().map(r -> (CapabilityStatement) r).toList());
+
+		throw new InternalErrorException("Unexpected response types " + results.stream()
+				.map(r -> r.getResourceType().name()).distinct().toList() + " from shards for request '" + url + "'");
+	}
+
+	private Bundle mergeBundles(List<Bundle> bundles)
+	{
+		Bundle merged = new Bundle();
+		merged.setType(Bundle.BundleType.SEARCHSET);
+
+		// a total missing for a single shard is missing for the merged result, e.g. an estimate not supported
+		if (bundles.stream().allMatch(Bundle::hasTotal))
+			merged.setTotal(Math.toIntExact(bundles.stream().mapToLong(Bundle::getTotal).sum()));
+		else
+			logger.debug("Search response of {} of {} shards without total, merged search response without total",
+					bundles.stream().filter(b -> !b.hasTotal()).count(), bundles.size());
+
+		merged.getMeta().setLastUpdated(bundles.stream().map(b -> b.getMeta().getLastUpdated())
+				.filter(Objects::nonNull).max(Date::compareTo).orElse(null));
+
+		return merged;
+	}
+
+	private CapabilityStatement mergeCapabilityStatements(List<CapabilityStatement> capabilityStatements)
+	{
+		// a resource type or search parameter is only supported if every shard supports it
+		CapabilityStatement merged = capabilityStatements.get(0).copy();
+		List<CapabilityStatement> others = capabilityStatements.subList(1, capabilityStatements.size());
+
+		for (CapabilityStatement.CapabilityStatementRestComponent rest : merged.getRest())
+		{
+			rest.getResource().removeIf(r -> others.stream().anyMatch(o -> getResource(o, r.getType()) == null));
+
+			for (CapabilityStatement.CapabilityStatementRestResourceComponent resource : rest.getResource())
+			{
+				resource.getSearchParam()
+						.removeIf(p -> others.stream().map(o -> getResource(o, resource.getType()))
+								.anyMatch(o -> o.getSearchParam().stream()
+										.noneMatch(op -> Objects.equals(op.getName(), p.getName()))));
+			}
+		}
+
+		Set<String> softwareVersions = capabilityStatements.stream().map(c -> c.getSoftware().getVersion())
+				.filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+		if (softwareVersions.size() > 1)
+		{
+			logger.warn("FHIR store shards run different software versions {}", softwareVersions);
+			merged.getSoftware().setVersion(String.join(", ", softwareVersions));
+		}
+
+		return merged;
+	}
+
+	private CapabilityStatement.CapabilityStatementRestResourceComponent getResource(
+			CapabilityStatement capabilityStatement, String type)
+	{
+		return capabilityStatement.getRest().stream().flatMap(r -> r.getResource().stream())
+				.filter(r -> Objects.equals(r.getType(), type)).findFirst().orElse(null);
+	}
+}
@@ -0,0 +1,42 @@
+package de.medizininformatik_initiative.process.report.message;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractTaskMessageSend;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class RestartReportAutostart extends AbstractTaskMessageSend
+{
+	public RestartReportAutostart(ProcessPluginApi api)
+	{
+		super(api);
+	}
+
+	@Override
+	protected Stream<Task.ParameterComponent> getAdditionalInputParameters(DelegateExecution execution,
+			Variables variables)
+	{
+		// the new instance starts with the next report immediately, the first execution input is not carried over
+		Task startTask = variables.getStartTask();
+
+		String timerInterval = variables.getString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_TIMER_INTERVAL);
+		Task.ParameterComponent timerIntervalInput = api.getTaskHelper().createInput(new StringType(timerInterval),
+				ConstantsReport.CODESYSTEM_REPORT, ConstantsReport.CODESYSTEM_REPORT_VALUE_TIMER_INTERVAL);
+
+		Optional<Reference> hrpIdentifier = api.getTaskHelper().getFirstInputParameterValue(startTask,
+				ConstantsReport.CODESYSTEM_REPORT, ConstantsReport.CODESYSTEM_REPORT_VALUE_HRP_IDENTIFIER,
+				Reference.class);
+
+		return Stream.concat(Stream.of(timerIntervalInput),
+				hrpIdentifier.stream().map(r -> api.getTaskHelper().createInput(r, ConstantsReport.CODESYSTEM_REPORT,
+						ConstantsReport.CODESYSTEM_REPORT_VALUE_HRP_IDENTIFIER)));
+	}
+}
@@ -1,16 +1,22 @@
 package de.medizininformatik_initiative.process.report.message;
 
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Base64BinaryType;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.InlineReport;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -22,12 +28,16 @@ import jakarta.ws.rs.core.Response;
 
 public class SendReport extends AbstractTaskMessageSend implements InitializingBean
 {
+	private static final Logger logger = LoggerFactory.getLogger(SendReport.class);
+
 	private final ReportStatusGenerator statusGenerator;
+	private final int inlineMaxBytes;
 
-	public SendReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public SendReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator, int inlineMaxBytes)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.inlineMaxBytes = inlineMaxBytes;
 	}
 
 	@Override
@@ -49,7 +59,42 @@ public class SendReport extends AbstractTaskMessageSend implements InitializingB
 				.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_REFERENCE);
 		parameterComponent.setValue(new Reference(bundleId).setType(ResourceType.Bundle.name()));
 
-		return Stream.of(parameterComponent);
+		return Stream.concat(Stream.of(parameterComponent), getInlineReport(bundleId).stream());
+	}
+
+	private Optional<Task.ParameterComponent> getInlineReport(String bundleId)
+	{
+		if (inlineMaxBytes <= 0)
+			return Optional.empty();
+
+		try
+		{
+			// the HRP uses the inline copy instead of downloading the referenced report from the DIC
+			IdType reportId = new IdType(bundleId);
+			Bundle report = api.getFhirWebserviceClientProvider().getLocalWebserviceClient().read(Bundle.class,
+					reportId.getIdPart(), reportId.getVersionIdPart());
+			byte[] encoded = InlineReport.encode(api.getFhirContext(), report);
+
+			if (encoded.length > inlineMaxBytes)
+			{
+				logger.debug("Report with id '{}' has {} compressed bytes, more than {} for inline delivery", bundleId,
+						encoded.length, inlineMaxBytes);
+				return Optional.empty();
+			}
+
+			Task.ParameterComponent parameterComponent = new Task.ParameterComponent();
+			parameterComponent.getType().addCoding().setSystem(ConstantsReport.CODESYSTEM_REPORT)
+					.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_INLINE);
+			parameterComponent.setValue(new Base64BinaryType(encoded));
+
+			return Optional.of(parameterComponent);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not inline report with id '{}', sending reference only - {}", bundleId,
+					exception.getMessage());
+			return Optional.empty();
+		}
 	}
 
 	@Override
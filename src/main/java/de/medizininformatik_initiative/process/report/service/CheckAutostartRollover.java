@@ -0,0 +1,47 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.util.Objects;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class CheckAutostartRollover extends AbstractServiceDelegate
+{
+	private static final Logger logger = LoggerFactory.getLogger(CheckAutostartRollover.class);
+
+	private final int maxCycles;
+
+	public CheckAutostartRollover(ProcessPluginApi api, int maxCycles)
+	{
+		super(api);
+
+		this.maxCycles = maxCycles;
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		// the counter is overwritten in place, no additional variable instances are created per cycle
+		Integer previousCycles = variables.getInteger(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_AUTOSTART_CYCLES);
+		int cycles = previousCycles == null ? 1 : previousCycles + 1;
+
+		boolean rollover = maxCycles > 0 && cycles >= maxCycles;
+
+		if (maxCycles > 0)
+			variables.setInteger(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_AUTOSTART_CYCLES, cycles);
+
+		if (!Objects.equals(variables.getBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_AUTOSTART_ROLLOVER),
+				rollover))
+			variables.setBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_AUTOSTART_ROLLOVER, rollover);
+
+		if (rollover)
+			logger.info("Report autostart reached {} timer cycles, restarting report autostart for Task with id '{}'",
+					cycles, variables.getStartTask().getId());
+	}
+}
@@ -0,0 +1,215 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class CheckDataChanges extends AbstractServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(CheckDataChanges.class);
+
+	private static final String RESPONSE_OK = "200";
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	private final ShardedFhirStoreSearchClient fhirStoreSearchClient;
+	private final BundleVariables bundleVariables;
+	private final long reuseMaxAgeMillis;
+
+	public CheckDataChanges(ProcessPluginApi api, ShardedFhirStoreSearchClient fhirStoreSearchClient,
+			BundleVariables bundleVariables, long reuseMaxAgeMillis)
+	{
+		super(api);
+
+		this.fhirStoreSearchClient = fhirStoreSearchClient;
+		this.bundleVariables = bundleVariables;
+		this.reuseMaxAgeMillis = reuseMaxAgeMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+
+		Objects.requireNonNull(fhirStoreSearchClient, "fhirStoreSearchClient");
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		Task task = variables.getStartTask();
+		Bundle searchBundle = bundleVariables.get(variables,
+				ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
+		Target target = variables.getTarget();
+
+		Optional<String> reportReference = reuseMaxAgeMillis > 0
+				? findUnchangedReport(searchBundle, target.getOrganizationIdentifierValue(), task.getId())
+				: Optional.empty();
+
+		variables.setBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_UNCHANGED, reportReference.isPresent());
+
+		if (reportReference.isPresent())
+		{
+			variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE,
+					reportReference.get());
+			variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FULL_REFERENCE, reportReference.get());
+		}
+	}
+
+	private Optional<String> findUnchangedReport(Bundle searchBundle, String hrpIdentifier, String taskId)
+	{
+		try
+		{
+			Optional<Bundle> previousReport = readPreviousReport();
+
+			if (previousReport.isEmpty())
+				return Optional.empty();
+
+			Bundle report = previousReport.get();
+			Date since = getExecutionTime(report);
+
+			if (since == null || System.currentTimeMillis() - since.getTime() > reuseMaxAgeMillis)
+			{
+				logger.info("Previous report older than {} ms, creating new report for HRP '{}' and Task with id '{}'",
+						reuseMaxAgeMillis, hrpIdentifier, taskId);
+				return Optional.empty();
+			}
+
+			if (!api.getReadAccessHelper().hasOrganization(report, hrpIdentifier) || !isComplete(report)
+					|| !isSameSearchBundle(searchBundle, report))
+			{
+				logger.info("Previous report incomplete or created for other search Bundle or HRP, creating new report "
+						+ "for HRP '{}' and Task with id '{}'", hrpIdentifier, taskId);
+				return Optional.empty();
+			}
+
+			if (isSoftwareChanged(report))
+			{
+				logger.info("FHIR store software changed since previous report, creating new report for HRP '{}' and "
+						+ "Task with id '{}'", hrpIdentifier, taskId);
+				return Optional.empty();
+			}
+
+			// a single changed resource type requires all report search requests to be executed again
+			List<String> resourceTypes = getResourceTypes(searchBundle);
+			for (String resourceType : resourceTypes)
+			{
+				if (fhirStoreSearchClient.hasChanges(resourceType, since))
+				{
+					logger.info("{} resources changed since previous report, creating new report for HRP '{}' and Task "
+							+ "with id '{}'", resourceType, hrpIdentifier, taskId);
+					return Optional.empty();
+				}
+			}
+
+			String absoluteId = new IdType(api.getEndpointProvider().getLocalEndpointAddress(),
+					ResourceType.Bundle.name(), report.getIdElement().getIdPart(), report.getMeta().getVersionId())
+					.getValue();
+
+			logger.info("No changes of {} resource types since {}, sending previous report Bundle with id '{}' to HRP "
+					+ "'{}' for Task with id '{}'", resourceTypes.size(), since, absoluteId, hrpIdentifier, taskId);
+
+			return Optional.of(absoluteId);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not check data changes since previous report, creating new report for HRP '{}' and "
+					+ "Task with id '{}' - {}", hrpIdentifier, taskId, exception.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	private Optional<Bundle> readPreviousReport()
+	{
+		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
+
+		Bundle result = api.getFhirWebserviceClientProvider().getLocalWebserviceClient().searchWithStrictHandling(
+				Bundle.class, Map.of("identifier", Collections.singletonList(
+						ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER + "|" + localOrganizationIdentifier)));
+
+		return result.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof Bundle).map(r -> (Bundle) r).findFirst();
+	}
+
+	private Date getExecutionTime(Bundle report)
+	{
+		// the oldest search result of the previous report, changes while it was created are probed again
+		return report.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof Bundle).map(r -> r.getMeta().getLastUpdated()).filter(Objects::nonNull)
+				.min(Date::compareTo).orElse(report.getMeta().getLastUpdated());
+	}
+
+	private boolean isComplete(Bundle report)
+	{
+		return report.getEntry().stream().allMatch(e -> e.hasResponse() && e.getResponse().hasStatus()
+				&& e.getResponse().getStatus().contains(RESPONSE_OK));
+	}
+
+	private boolean isSameSearchBundle(Bundle searchBundle, Bundle report)
+	{
+		if (searchBundle.getEntry().size() != report.getEntry().size())
+			return false;
+
+		for (int i = 0; i < searchBundle.getEntry().size(); i++)
+		{
+			String url = searchBundle.getEntry().get(i).getRequest().getUrl();
+			Resource resource = report.getEntry().get(i).getResource();
+
+			boolean same = resource instanceof Bundle bundle
+					? bundle.getLink("self") != null && Objects.equals(url, bundle.getLink("self").getUrl())
+					: resource instanceof CapabilityStatement && CAPABILITY_STATEMENT_PATH.equals(url);
+
+			if (!same)
+				return false;
+		}
+
+		return true;
+	}
+
+	private boolean isSoftwareChanged(Bundle report)
+	{
+		Optional<CapabilityStatement> previous = report.getEntry().stream()
+				.map(Bundle.BundleEntryComponent::getResource).filter(r -> r instanceof CapabilityStatement)
+				.map(r -> (CapabilityStatement) r).findFirst();
+
+		if (previous.isEmpty())
+			return false;
+
+		Resource current = fhirStoreSearchClient.search(CAPABILITY_STATEMENT_PATH);
+
+		return !(current instanceof CapabilityStatement capabilityStatement)
+				|| !Objects.equals(previous.get().getSoftware().getName(), capabilityStatement.getSoftware().getName())
+				|| !Objects.equals(previous.get().getSoftware().getVersion(),
+						capabilityStatement.getSoftware().getVersion());
+	}
+
+	private List<String> getResourceTypes(Bundle searchBundle)
+	{
+		return searchBundle.getEntry().stream().map(e -> e.getRequest().getUrl())
+				.filter(u -> u != null && !CAPABILITY_STATEMENT_PATH.equals(u)).map(u -> u.split("\\?", 2)[0])
+				.distinct().toList();
+	}
+}
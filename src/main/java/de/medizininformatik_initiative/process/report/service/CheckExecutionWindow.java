@@ -0,0 +1,104 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.util.ExecutionWindows;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class CheckExecutionWindow extends AbstractServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(CheckExecutionWindow.class);
+
+	private static final String PROBE_PATH = "metadata";
+
+	private final ShardedFhirStoreSearchClient fhirStoreSearchClient;
+	private final ExecutionWindows executionWindows;
+	private final long latencyMaxMillis;
+	private final long deferralMillis;
+
+	public CheckExecutionWindow(ProcessPluginApi api, ShardedFhirStoreSearchClient fhirStoreSearchClient,
+			ExecutionWindows executionWindows, long latencyMaxMillis, long deferralMillis)
+	{
+		super(api);
+
+		this.fhirStoreSearchClient = fhirStoreSearchClient;
+		this.executionWindows = executionWindows;
+		this.latencyMaxMillis = latencyMaxMillis;
+		this.deferralMillis = deferralMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+
+		Objects.requireNonNull(fhirStoreSearchClient, "fhirStoreSearchClient");
+		Objects.requireNonNull(executionWindows, "executionWindows");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		String taskId = variables.getStartTask().getId();
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+
+		Optional<LocalDateTime> deferredUntil = Optional.empty();
+
+		if (!executionWindows.contains(now))
+		{
+			deferredUntil = executionWindows.nextStart(now);
+			logger.info("Report send process outside of execution windows, deferring until '{}' for Task with id '{}'",
+					deferredUntil.orElse(null), taskId);
+		}
+		else if (latencyMaxMillis > 0 && isFhirStoreUnderLoad(taskId))
+		{
+			LocalDateTime retry = now.plus(deferralMillis, ChronoUnit.MILLIS);
+			deferredUntil = Optional.of(executionWindows.contains(retry) ? retry
+					: executionWindows.nextStart(retry).orElse(retry));
+			logger.info("FHIR store under load, deferring report send process until '{}' for Task with id '{}'",
+					deferredUntil.get(), taskId);
+		}
+
+		if (!Objects.equals(variables.getBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_EXECUTION_DEFERRED),
+				deferredUntil.isPresent()))
+			variables.setBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_EXECUTION_DEFERRED,
+					deferredUntil.isPresent());
+
+		deferredUntil.ifPresent(d -> variables
+				.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_EXECUTION_DEFERRED_UNTIL, d.toString()));
+	}
+
+	// latency of a trivial request, failed requests are handled like a FHIR store under load
+	private boolean isFhirStoreUnderLoad(String taskId)
+	{
+		long start = System.currentTimeMillis();
+
+		try
+		{
+			fhirStoreSearchClient.search(PROBE_PATH);
+			long latency = System.currentTimeMillis() - start;
+
+			logger.debug("FHIR store probe latency {} ms (max {} ms) for Task with id '{}'", latency,
+					latencyMaxMillis, taskId);
+
+			return latency > latencyMaxMillis;
+		}
+		catch (Exception exception)
+		{
+			logger.warn("FHIR store probe failed for Task with id '{}' - {}", taskId, exception.getMessage());
+			return true;
+		}
+	}
+}
@@ -15,17 +15,19 @@ import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Target;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class CheckSearchBundle extends AbstractServiceDelegate
+public class CheckSearchBundle extends AbstractServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(CheckSearchBundle.class);
 
@@ -41,17 +43,29 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 	private static final Set<String> ALL_RESOURCE_TYPES = EnumSet.allOf(ResourceType.class).stream()
 			.map(ResourceType::name).collect(Collectors.toSet());
 
-	private static final List<String> DATE_SEARCH_PARAMS = List.of("date", "recorded-date", "onset-date", "effective",
+	public static final List<String> DATE_SEARCH_PARAMS = List.of("date", "recorded-date", "onset-date", "effective",
 			"effective-time", "authored", "collected", "issued", "period", "location-period", "occurrence");
-	private static final List<String> TOKEN_SEARCH_PARAMS = List.of("code", "ingredient-code", "type");
+	public static final List<String> TOKEN_SEARCH_PARAMS = List.of("code", "ingredient-code", "type");
 	private static final List<String> OTHER_SEARCH_PARAMS = List.of("_profile", "_summary");
 	private static final List<String> VALID_SEARCH_PARAMS = Stream
 			.of(DATE_SEARCH_PARAMS.stream(), TOKEN_SEARCH_PARAMS.stream(), OTHER_SEARCH_PARAMS.stream()).flatMap(s -> s)
 			.toList();
 
-	public CheckSearchBundle(ProcessPluginApi api)
+	private final BundleVariables bundleVariables;
+
+	public CheckSearchBundle(ProcessPluginApi api, BundleVariables bundleVariables)
 	{
 		super(api);
+
+		this.bundleVariables = bundleVariables;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
 	}
 
 	@Override
@@ -59,18 +73,14 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 	{
 		Task task = variables.getStartTask();
 		Target target = variables.getTarget();
-		Bundle bundle = variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
+		Bundle bundle = bundleVariables.get(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
 
 		logger.info("Checking downloaded search Bundle from HRP '{}' as part of Task with id '{}'",
 				target.getOrganizationIdentifierValue(), task.getId());
 
 		try
 		{
-			List<Bundle.BundleEntryComponent> searches = bundle.getEntry();
-
-			testNoResources(searches);
-			testRequestMethod(searches);
-			testRequestUrls(searches);
+			check(bundle);
 
 			logger.info(
 					"Search Bundle downloaded from HRP '{}' as part of Task with id '{}' contains only valid requests of type GET and valid search params {}",
@@ -87,13 +97,23 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 		}
 	}
 
-	private void testNoResources(List<Bundle.BundleEntryComponent> searches)
+	// also used to validate search Bundles outside of the report send process
+	public static void check(Bundle searchBundle)
+	{
+		List<Bundle.BundleEntryComponent> searches = searchBundle.getEntry();
+
+		testNoResources(searches);
+		testRequestMethod(searches);
+		testRequestUrls(searches);
+	}
+
+	private static void testNoResources(List<Bundle.BundleEntryComponent> searches)
 	{
 		if (searches.stream().map(Bundle.BundleEntryComponent::getResource).anyMatch(Objects::nonNull))
 			throw new RuntimeException("Search Bundle contains resources");
 	}
 
-	private void testRequestMethod(List<Bundle.BundleEntryComponent> searches)
+	private static void testRequestMethod(List<Bundle.BundleEntryComponent> searches)
 	{
 		long searchesCount = searches.size();
 		long httpGetCount = searches.stream().filter(Bundle.BundleEntryComponent::hasRequest)
@@ -104,7 +124,7 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 			throw new RuntimeException("Search Bundle contains HTTP method other then GET");
 	}
 
-	private void testRequestUrls(List<Bundle.BundleEntryComponent> searches)
+	private static void testRequestUrls(List<Bundle.BundleEntryComponent> searches)
 	{
 		int searchesCount = searches.size();
 		List<Bundle.BundleEntryRequestComponent> requests = searches.stream()
@@ -125,12 +145,13 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 		testContainsValidTokenSearchParams(uriComponents);
 	}
 
-	private void testContainsOnlyResourcePath(List<UriComponents> uriComponents)
+	private static void testContainsOnlyResourcePath(List<UriComponents> uriComponents)
 	{
-		uriComponents.stream().filter(u -> !CAPABILITY_STATEMENT_PATH.equals(u.getPath())).forEach(this::testPath);
+		uriComponents.stream().filter(u -> !CAPABILITY_STATEMENT_PATH.equals(u.getPath()))
+				.forEach(CheckSearchBundle::testPath);
 	}
 
-	private void testPath(UriComponents uriComponents)
+	private static void testPath(UriComponents uriComponents)
 	{
 		if (!ALL_RESOURCE_TYPES.contains(uriComponents.getPath()))
 		{
@@ -139,13 +160,13 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 		}
 	}
 
-	private void testContainsValidSummaryCount(List<UriComponents> uriComponents)
+	private static void testContainsValidSummaryCount(List<UriComponents> uriComponents)
 	{
 		uriComponents.stream().filter(u -> !CAPABILITY_STATEMENT_PATH.equals(u.getPath()))
-				.map(UriComponents::getQueryParams).forEach(this::testSummaryCount);
+				.map(UriComponents::getQueryParams).forEach(CheckSearchBundle::testSummaryCount);
 	}
 
-	private void testSummaryCount(MultiValueMap<String, String> queryParams)
+	private static void testSummaryCount(MultiValueMap<String, String> queryParams)
 	{
 		List<String> summaryParams = queryParams.get(SUMMARY_SEARCH_PARAM);
 
@@ -167,13 +188,13 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 		}
 	}
 
-	private void testContainsValidSearchParams(List<UriComponents> uriComponents)
+	private static void testContainsValidSearchParams(List<UriComponents> uriComponents)
 	{
 		uriComponents.stream().filter(u -> !CAPABILITY_STATEMENT_PATH.equals(u.getPath()))
-				.map(UriComponents::getQueryParams).forEach(this::testSearchParamNames);
+				.map(UriComponents::getQueryParams).forEach(CheckSearchBundle::testSearchParamNames);
 	}
 
-	private void testSearchParamNames(MultiValueMap<String, String> queryParams)
+	private static void testSearchParamNames(MultiValueMap<String, String> queryParams)
 	{
 		if (queryParams.keySet().stream().map(s -> MODIFIERS.matcher(s).replaceAll(""))
 				.anyMatch(s -> !VALID_SEARCH_PARAMS.contains(s)))
@@ -181,13 +202,13 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 					+ VALID_SEARCH_PARAMS);
 	}
 
-	private void testContainsValidDateSearchParams(List<UriComponents> uriComponents)
+	private static void testContainsValidDateSearchParams(List<UriComponents> uriComponents)
 	{
 		uriComponents.stream().filter(u -> !CAPABILITY_STATEMENT_PATH.equals(u.getPath()))
-				.map(UriComponents::getQueryParams).forEach(this::testSearchParamDateValues);
+				.map(UriComponents::getQueryParams).forEach(CheckSearchBundle::testSearchParamDateValues);
 	}
 
-	private void testSearchParamDateValues(MultiValueMap<String, String> queryParams)
+	private static void testSearchParamDateValues(MultiValueMap<String, String> queryParams)
 	{
 		List<Map.Entry<String, String>> dateParams = queryParams.entrySet().stream()
 				.filter(e -> DATE_SEARCH_PARAMS.contains(MODIFIERS.matcher(e.getKey()).replaceAll("")))
@@ -210,13 +231,13 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 							.map(e -> e.getKey() + ":" + e.getValue()).collect(Collectors.joining(",")) + "]");
 	}
 
-	private void testContainsValidTokenSearchParams(List<UriComponents> uriComponents)
+	private static void testContainsValidTokenSearchParams(List<UriComponents> uriComponents)
 	{
 		uriComponents.stream().filter(u -> !CAPABILITY_STATEMENT_PATH.equals(u.getPath()))
-				.forEach(this::testSearchParamTokenValues);
+				.forEach(CheckSearchBundle::testSearchParamTokenValues);
 	}
 
-	private void testSearchParamTokenValues(UriComponents uriComponents)
+	private static void testSearchParamTokenValues(UriComponents uriComponents)
 	{
 		List<Map.Entry<String, String>> codeParams = uriComponents.getQueryParams().entrySet().stream()
 				.filter(e -> TOKEN_SEARCH_PARAMS.contains(MODIFIERS.matcher(e.getKey()).replaceAll("")))
@@ -233,7 +254,7 @@ public class CheckSearchBundle extends AbstractServiceDelegate
 							.map(e -> e.getKey() + ":" + e.getValue()).collect(Collectors.joining(",")) + "]");
 	}
 
-	private boolean isEncounterType(String path, String paramName)
+	private static boolean isEncounterType(String path, String paramName)
 	{
 		return TYPE_SEARCH_PARAM.equals(paramName) && ResourceType.Encounter.name().equals(path);
 	}
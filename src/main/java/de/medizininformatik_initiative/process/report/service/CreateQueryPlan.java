@@ -0,0 +1,199 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.QueryTimings;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class CreateQueryPlan extends AbstractServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(CreateQueryPlan.class);
+
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+	private static final double ESTIMATE_PERCENTILE = 0.5;
+
+	private record PlannedQuery(String query, int requests, OptionalLong estimateMillis)
+	{
+	}
+
+	private final ShardedFhirStoreSearchClient fhirStoreSearchClient;
+	private final QueryTimings queryTimings;
+	private final BundleVariables bundleVariables;
+	private final int queryParallelism;
+	private final Path planFile;
+
+	public CreateQueryPlan(ProcessPluginApi api, ShardedFhirStoreSearchClient fhirStoreSearchClient,
+			QueryTimings queryTimings, BundleVariables bundleVariables, int queryParallelism, Path planFile)
+	{
+		super(api);
+
+		this.fhirStoreSearchClient = fhirStoreSearchClient;
+		this.queryTimings = queryTimings;
+		this.bundleVariables = bundleVariables;
+		this.queryParallelism = queryParallelism;
+		this.planFile = planFile;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+
+		Objects.requireNonNull(fhirStoreSearchClient, "fhirStoreSearchClient");
+		Objects.requireNonNull(queryTimings, "queryTimings");
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
+
+		if (queryParallelism < 1)
+			throw new IllegalArgumentException("queryParallelism < 1");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		Task task = variables.getStartTask();
+		Target target = variables.getTarget();
+		Bundle searchBundle = bundleVariables.get(variables,
+				ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
+
+		List<PlannedQuery> queries = planQueries(searchBundle);
+		String plan = toPlan(queries, searchBundle, target.getOrganizationIdentifierValue());
+
+		logger.info("Query plan for search Bundle from HRP '{}' in Task with id '{}':\n{}",
+				target.getOrganizationIdentifierValue(), task.getId(), plan);
+
+		writePlanFile(plan, task.getId());
+
+		task.addOutput(api.getTaskHelper().createOutput(new StringType(plan), ConstantsReport.CODESYSTEM_REPORT,
+				ConstantsReport.CODESYSTEM_REPORT_VALUE_QUERY_PLAN));
+		variables.updateTask(task);
+	}
+
+	// identical queries after canonicalization are executed once in the order of their first request, timings are
+	// recorded by count-only url
+	private List<PlannedQuery> planQueries(Bundle searchBundle)
+	{
+		Map<String, List<String>> requests = new LinkedHashMap<>();
+		searchBundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasRequest)
+				.map(e -> e.getRequest().getUrl()).filter(u -> u != null && !CAPABILITY_STATEMENT_PATH.equals(u))
+				.map(ReportRequestExecutor::toCountOnlyUrl).forEach(u -> requests
+						.computeIfAbsent(ReportRequestExecutor.canonicalize(u), k -> new ArrayList<>()).add(u));
+
+		return requests.values().stream()
+				.map(urls -> new PlannedQuery(urls.get(0), urls.size(), getEstimate(urls))).toList();
+	}
+
+	private OptionalLong getEstimate(List<String> urls)
+	{
+		Set<String> distinct = new LinkedHashSet<>(urls);
+
+		return distinct.stream().map(u -> queryTimings.getPercentile(u, ESTIMATE_PERCENTILE))
+				.filter(OptionalLong::isPresent).findFirst().orElse(OptionalLong.empty());
+	}
+
+	private String toPlan(List<PlannedQuery> queries, Bundle searchBundle, String hrpIdentifier)
+	{
+		// as executed by the report, each query in order on the lane that becomes free first
+		long[] lanes = new long[queryParallelism];
+		int[] assignedLanes = new int[queries.size()];
+		for (int i = 0; i < queries.size(); i++)
+		{
+			int lane = IntStream.range(0, lanes.length).boxed().min(Comparator.comparingLong(l -> lanes[l]))
+					.orElse(0);
+			lanes[lane] += queries.get(i).estimateMillis().orElse(0);
+			assignedLanes[i] = lane;
+		}
+
+		long unknown = queries.stream().filter(q -> q.estimateMillis().isEmpty()).count();
+		int requests = queries.stream().mapToInt(PlannedQuery::requests).sum();
+
+		StringBuilder plan = new StringBuilder();
+		plan.append("Search Bundle: ").append(searchBundle.getIdElement().getIdPart()).append(" version ")
+				.append(searchBundle.getMeta().getVersionId()).append(" from HRP '").append(hrpIdentifier)
+				.append("'\n");
+		plan.append("FHIR server: ").append(getSoftware()).append('\n');
+		plan.append("Requests: ").append(requests).append(", distinct queries: ").append(queries.size())
+				.append(", parallelism: ").append(queryParallelism).append('\n');
+		plan.append("Queries answered by the count index or NDJSON files or executed asynchronously are planned as "
+				+ "synchronous requests\n");
+		plan.append("estimate_ms\tlane\trequests\tquery\n");
+
+		for (int i = 0; i < queries.size(); i++)
+		{
+			PlannedQuery query = queries.get(i);
+			plan.append(query.estimateMillis().isPresent() ? String.valueOf(query.estimateMillis().getAsLong()) : "?")
+					.append('\t').append(assignedLanes[i] + 1).append('\t').append(query.requests()).append('\t')
+					.append(query.query()).append('\n');
+		}
+
+		plan.append("Estimated total runtime: ").append(Arrays.stream(lanes).max().orElse(0)).append(" ms");
+		if (unknown > 0)
+			plan.append(" plus ").append(unknown).append(" queries without recorded timings");
+
+		return plan.toString();
+	}
+
+	// the CapabilityStatement is the only request sent to the FHIR server in a dry run
+	private String getSoftware()
+	{
+		try
+		{
+			Resource result = fhirStoreSearchClient.search(CAPABILITY_STATEMENT_PATH);
+
+			if (result instanceof CapabilityStatement capabilityStatement)
+				return capabilityStatement.getSoftware().getName() + " "
+						+ capabilityStatement.getSoftware().getVersion();
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not read CapabilityStatement of FHIR server - {}", exception.getMessage());
+		}
+
+		return "unknown";
+	}
+
+	private void writePlanFile(String plan, String taskId)
+	{
+		if (planFile == null)
+			return;
+
+		try
+		{
+			Files.writeString(planFile, plan, StandardCharsets.UTF_8);
+			logger.info("Query plan for Task with id '{}' written to '{}'", taskId, planFile);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not write query plan to '{}' - {}", planFile, exception.getMessage());
+		}
+	}
+}
@@ -1,35 +1,44 @@
 package de.medizininformatik_initiative.process.report.service;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CapabilityStatement;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
-import org.hl7.fhir.r4.model.OperationOutcome;
-import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
-import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import de.medizininformatik_initiative.process.report.ConstantsReport;
-import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.util.AcknowledgedReports;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import de.medizininformatik_initiative.process.report.util.CapabilityFingerprint;
+import de.medizininformatik_initiative.process.report.util.IndexAdvisor;
+import de.medizininformatik_initiative.process.report.util.PrecomputedEntries;
+import de.medizininformatik_initiative.process.report.util.ReportBundleHash;
+import de.medizininformatik_initiative.process.report.util.ReportBundleStore;
+import de.medizininformatik_initiative.process.report.util.ReportDelta;
+import de.medizininformatik_initiative.process.report.util.ReportEntry;
+import de.medizininformatik_initiative.process.report.util.ReportPartitions;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Target;
 import dev.dsf.bpe.v1.variables.Variables;
-import dev.dsf.fhir.client.PreferReturnMinimal;
 
 public class CreateReport extends AbstractServiceDelegate implements InitializingBean
 {
@@ -37,18 +46,43 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 
 	private static final String RESPONSE_OK = "200";
 
+	private static final String DELTA_IDENTIFIER_SUFFIX = "_delta";
+	private static final String COMPACT_IDENTIFIER_SUFFIX = "_compact";
+
 	private final String resourceVersion;
-	private final FhirClientFactory fhirClientFactory;
+	private final ShardedFhirStoreSearchClient fhirStoreSearchClient;
+	private final ReportRequestExecutor reportRequestExecutor;
+	private final ReportBundleStore reportBundleStore;
+	private final BundleVariables bundleVariables;
+	private final AcknowledgedReports acknowledgedReports;
+	private final ReportPartitions reportPartitions;
+	private final PrecomputedEntries precomputedEntries;
+	private final IndexAdvisor indexAdvisor;
 	private final DataLogger dataLogger;
-
-	public CreateReport(ProcessPluginApi api, String resourceVersion, FhirClientFactory fhirClientFactory,
-			DataLogger dataLogger)
+	private final boolean deltaEnabled;
+	private final boolean compactEnabled;
+
+	public CreateReport(ProcessPluginApi api, String resourceVersion,
+			ShardedFhirStoreSearchClient fhirStoreSearchClient, ReportRequestExecutor reportRequestExecutor,
+			ReportBundleStore reportBundleStore, BundleVariables bundleVariables,
+			AcknowledgedReports acknowledgedReports, ReportPartitions reportPartitions,
+			PrecomputedEntries precomputedEntries, IndexAdvisor indexAdvisor, DataLogger dataLogger,
+			boolean deltaEnabled, boolean compactEnabled)
 	{
 		super(api);
 
 		this.resourceVersion = resourceVersion;
-		this.fhirClientFactory = fhirClientFactory;
+		this.fhirStoreSearchClient = fhirStoreSearchClient;
+		this.reportRequestExecutor = reportRequestExecutor;
+		this.reportBundleStore = reportBundleStore;
+		this.bundleVariables = bundleVariables;
+		this.acknowledgedReports = acknowledgedReports;
+		this.reportPartitions = reportPartitions;
+		this.precomputedEntries = precomputedEntries;
+		this.indexAdvisor = indexAdvisor;
 		this.dataLogger = dataLogger;
+		this.deltaEnabled = deltaEnabled;
+		this.compactEnabled = compactEnabled;
 	}
 
 	@Override
@@ -57,7 +91,14 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 		super.afterPropertiesSet();
 
 		Objects.requireNonNull(resourceVersion, "resourceVersion");
-		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(fhirStoreSearchClient, "fhirStoreSearchClient");
+		Objects.requireNonNull(reportRequestExecutor, "reportRequestExecutor");
+		Objects.requireNonNull(reportBundleStore, "reportBundleStore");
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
+		Objects.requireNonNull(acknowledgedReports, "acknowledgedReports");
+		Objects.requireNonNull(reportPartitions, "reportPartitions");
+		Objects.requireNonNull(precomputedEntries, "precomputedEntries");
+		Objects.requireNonNull(indexAdvisor, "indexAdvisor");
 		Objects.requireNonNull(dataLogger, "dataLogger");
 	}
 
@@ -65,20 +106,27 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 	protected void doExecute(DelegateExecution execution, Variables variables)
 	{
 		Task task = variables.getStartTask();
-		Bundle searchBundle = variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
+		Bundle searchBundle = bundleVariables.get(variables,
+				ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
 		Target target = variables.getTarget();
 
 		try
 		{
-			Bundle responseBundle = executeSearchBundle(searchBundle, target.getOrganizationIdentifierValue());
+			List<ReportEntry> reportEntries = executeSearchBundle(searchBundle,
+					target.getOrganizationIdentifierValue());
 
-			Bundle reportBundle = transformToReportBundle(searchBundle, responseBundle, target);
+			Bundle reportBundle = transformToReportBundle(reportEntries, target);
 			dataLogger.logResource("Report Bundle", reportBundle);
 
 			checkReportBundle(searchBundle, reportBundle, target.getOrganizationIdentifierValue());
 
 			String reportReference = storeReportBundle(reportBundle, target.getOrganizationIdentifierValue(),
 					task.getId());
+			variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FULL_REFERENCE, reportReference);
+
+			reportReference = storeTransferReportBundle(reportBundle, reportReference,
+					target.getOrganizationIdentifierValue(), task.getId()).orElse(reportReference);
+
 			variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE,
 					reportReference);
 		}
@@ -91,59 +139,113 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 		}
 	}
 
-	private Bundle executeSearchBundle(Bundle searchBundle, String hrpIdentifier)
+	private List<ReportEntry> executeSearchBundle(Bundle searchBundle, String hrpIdentifier)
 	{
 		logger.info(
 				"Executing search Bundle from HRP '{}' against FHIR store with base url '{}' - this could take a while...",
-				hrpIdentifier, fhirClientFactory.getFhirClient().getFhirBaseUrl());
-
-		Bundle responseBundle = new Bundle();
-		responseBundle.setType(Bundle.BundleType.BATCHRESPONSE);
+				hrpIdentifier, fhirStoreSearchClient.getBaseUrls());
 
-		searchBundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasRequest)
+		List<String> urls = searchBundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasRequest)
 				.map(Bundle.BundleEntryComponent::getRequest)
 				.filter(r -> r.hasUrl() && r.hasMethod() && Bundle.HTTPVerb.GET.equals(r.getMethod()))
-				.map(Bundle.BundleEntryRequestComponent::getUrl).map(this::executeRequest)
-				.forEach(responseBundle::addEntry);
+				.map(Bundle.BundleEntryRequestComponent::getUrl).toList();
+
+		Map<String, ReportEntry> previousEntries = new HashMap<>(getPreviousPartitionEntries(urls, hrpIdentifier));
 
-		return responseBundle;
+		// requests of new search Bundle versions may have been executed in advance
+		urls.stream().filter(url -> !previousEntries.containsKey(url))
+				.forEach(url -> precomputedEntries.get(url).ifPresent(e -> previousEntries.put(url, e)));
+
+		List<ReportEntry> executedEntries = reportRequestExecutor
+				.execute(urls.stream().filter(url -> !previousEntries.containsKey(url)).toList());
+
+		List<ReportEntry> entries = new ArrayList<>(urls.size());
+		int executedIndex = 0;
+		for (String url : urls)
+			entries.add(previousEntries.containsKey(url) ? previousEntries.get(url)
+					: executedEntries.get(executedIndex++));
+
+		adviseIndexes(entries);
+
+		return entries;
 	}
 
-	private Bundle.BundleEntryComponent executeRequest(String url)
+	private void adviseIndexes(List<ReportEntry> entries)
 	{
-		Bundle.BundleEntryComponent entry = new Bundle.BundleEntryComponent();
-
 		try
 		{
-			logger.debug("Executing report search request '{}'", url);
-
-			Resource result = fhirClientFactory.getFhirClient().search(url);
-			entry.setResource(result);
-			entry.setResponse(new Bundle.BundleEntryResponseComponent().setStatus(RESPONSE_OK));
+			indexAdvisor.advise(entries);
 		}
-		catch (BaseServerResponseException exception)
+		catch (Exception exception)
 		{
-			logger.warn("Could not execute report search request '{}' - {}", url, exception.getMessage());
+			logger.warn("Could not create search parameter advice - {}", exception.getMessage());
+		}
+	}
 
-			OperationOutcome outcome = new OperationOutcome();
-			outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
-					.setCode(OperationOutcome.IssueType.EXCEPTION).setDiagnostics(exception.getMessage());
-			Bundle.BundleEntryResponseComponent response = new Bundle.BundleEntryResponseComponent()
-					.setStatus(String.valueOf(exception.getStatusCode())).setOutcome(outcome);
+	// entries of the previous report for all partitions but the one with the oldest results, partitions missing
+	// successful entries in the previous report are always executed
+	private Map<String, ReportEntry> getPreviousPartitionEntries(List<String> urls, String hrpIdentifier)
+	{
+		if (reportPartitions.isEmpty())
+			return Collections.emptyMap();
 
-			entry.setResponse(response);
-		}
+		Map<String, ReportEntry> previous = readPreviousEntries();
+		Set<Integer> executed = reportPartitions.getExecutedPartitions(urls, previous);
+
+		Set<Integer> partitions = new HashSet<>();
+		Map<String, ReportEntry> reused = new HashMap<>();
+		urls.forEach(url -> reportPartitions.getPartition(url).ifPresent(partition ->
+		{
+			partitions.add(partition);
+			if (!executed.contains(partition))
+				reused.put(url, previous.get(url));
+		}));
+
+		logger.info("Executing {} of {} report partitions for HRP '{}', using {} entries of previous report",
+				executed.size(), partitions.size(), hrpIdentifier, reused.size());
+
+		return reused;
+	}
+
+	private Map<String, ReportEntry> readPreviousEntries()
+	{
+		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
 
-		return entry;
+		try
+		{
+			Optional<Bundle> previous = reportBundleStore.read(
+					api.getFhirWebserviceClientProvider().getLocalWebserviceClient(),
+					ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER + "|" + localOrganizationIdentifier);
+
+			Map<String, ReportEntry> entries = new HashMap<>();
+			previous.ifPresent(report -> report.getEntry().stream()
+					.filter(e -> e.getResource() instanceof Bundle && e.hasResponse()
+							&& e.getResponse().getStatus() != null && e.getResponse().getStatus().contains(RESPONSE_OK))
+					.forEach(e ->
+					{
+						Bundle searchset = (Bundle) e.getResource();
+						if (searchset.getLink(Bundle.LINK_SELF) != null)
+							entries.put(searchset.getLink(Bundle.LINK_SELF).getUrl(), reportRequestExecutor.project(
+									searchset.getLink(Bundle.LINK_SELF).getUrl(), searchset));
+					}));
+
+			return entries;
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not read previous report, executing all report partitions - {}",
+					exception.getMessage());
+			return Collections.emptyMap();
+		}
 	}
 
-	private Bundle transformToReportBundle(Bundle searchBundle, Bundle responseBundle, Target target)
+	private Bundle transformToReportBundle(List<ReportEntry> reportEntries, Target target)
 	{
 		Bundle report = new Bundle();
-		report.setMeta(responseBundle.getMeta());
 		report.getMeta().addProfile(ConstantsReport.PROFILE_REPORT_SEARCH_BUNDLE_RESPONSE + "|" + resourceVersion);
 		report.getMeta().setLastUpdated(new Date());
-		report.setType(responseBundle.getType());
+		report.setType(Bundle.BundleType.BATCHRESPONSE);
 
 		report.setIdentifier(new Identifier().setSystem(ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER)
 				.setValue(api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
@@ -152,122 +254,147 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 		api.getReadAccessHelper().addLocal(report);
 		api.getReadAccessHelper().addOrganization(report, target.getOrganizationIdentifierValue());
 
-		for (int i = 0; i < searchBundle.getEntry().size(); i++)
-		{
-			Bundle.BundleEntryComponent responseEntry = responseBundle.getEntry().get(i);
-			Bundle.BundleEntryComponent reportEntry = new Bundle.BundleEntryComponent();
+		reportEntries.stream().map(ReportEntry::toBundleEntry).forEach(report::addEntry);
 
-			if (responseEntry.getResource() instanceof Bundle || !responseEntry.hasResource())
-			{
-				toEntryComponentBundleResource(responseEntry, reportEntry,
-						searchBundle.getEntry().get(i).getRequest().getUrl());
-			}
+		return report;
+	}
 
-			if (responseEntry.getResource() instanceof CapabilityStatement)
-			{
-				toEntryComponentCapabilityStatementResource(responseEntry, reportEntry);
-			}
+	private void checkReportBundle(Bundle searchBundle, Bundle reportBundle, String hrpIdentifier)
+	{
+		int requests = searchBundle.getEntry().size();
 
-			reportEntry.setResponse(responseEntry.getResponse());
-			report.addEntry(reportEntry);
-		}
+		List<String> errorCodes = reportBundle.getEntry().stream().filter(e -> e.hasResponse())
+				.map(e -> e.getResponse()).filter(r -> r.hasStatus()).map(r -> r.getStatus())
+				.filter(s -> !s.contains(RESPONSE_OK)).toList();
 
-		return report;
+		if (errorCodes.size() >= requests)
+			throw new RuntimeException(
+					"Report Bundle for HRP '" + hrpIdentifier + "' only contains error status codes");
 	}
 
-	private void toEntryComponentBundleResource(Bundle.BundleEntryComponent responseEntry,
-			Bundle.BundleEntryComponent reportEntry, String url)
+	private String storeReportBundle(Bundle responseBundle, String hrpIdentifier, String taskId)
 	{
-		Bundle reportEntryBundle = new Bundle();
-		reportEntryBundle.getMeta().setLastUpdated(new Date());
-		reportEntryBundle.addLink().setRelation("self").setUrl(url);
-		reportEntryBundle.setType(Bundle.BundleType.SEARCHSET);
-		reportEntryBundle.setTotal(0);
+		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
+		String reportIdentifier = ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER + "|"
+				+ localOrganizationIdentifier;
 
-		if (responseEntry.getResource() instanceof Bundle responseEntryBundle)
-		{
-			reportEntryBundle.setTotal(responseEntryBundle.getTotal());
-			reportEntryBundle.getMeta().setLastUpdated(responseEntryBundle.getMeta().getLastUpdated());
-		}
+		IdType bundleIdType = reportBundleStore.store(
+				api.getFhirWebserviceClientProvider().getLocalWebserviceClient(), responseBundle, reportIdentifier);
+
+		String absoluteId = toAbsoluteId(bundleIdType);
+
+		logger.info("Stored report Bundle with id '{}' for HRP '{}' and Task with id '{}'", absoluteId, hrpIdentifier,
+				taskId);
 
-		reportEntry.setResource(reportEntryBundle);
+		return absoluteId;
 	}
 
-	private void toEntryComponentCapabilityStatementResource(Bundle.BundleEntryComponent responseEntry,
-			Bundle.BundleEntryComponent reportEntry)
+	private Optional<String> storeTransferReportBundle(Bundle reportBundle, String reportReference,
+			String hrpIdentifier, String taskId)
 	{
-		CapabilityStatement responseEntryCapabilityStatement = (CapabilityStatement) responseEntry.getResource();
-		CapabilityStatement reportEntryCapabilityStatement = new CapabilityStatement();
+		if (!deltaEnabled && !compactEnabled)
+			return Optional.empty();
 
-		reportEntryCapabilityStatement.setKind(CapabilityStatement.CapabilityStatementKind.CAPABILITY);
-		reportEntryCapabilityStatement.setStatus(responseEntryCapabilityStatement.getStatus());
-		reportEntryCapabilityStatement.setDate(responseEntryCapabilityStatement.getDate());
-		reportEntryCapabilityStatement.setName("Server");
+		// transfer reports are only created against the last report the HRP acknowledged with receipt-ok
+		Optional<String> baseReference = acknowledgedReports.get(hrpIdentifier);
 
-		reportEntryCapabilityStatement.getSoftware().setName(responseEntryCapabilityStatement.getSoftware().getName());
-		reportEntryCapabilityStatement.getSoftware()
-				.setVersion(responseEntryCapabilityStatement.getSoftware().getVersion());
+		if (baseReference.isEmpty())
+			return Optional.empty();
 
-		reportEntryCapabilityStatement.setFhirVersion(responseEntryCapabilityStatement.getFhirVersion());
+		try
+		{
+			IdType baseId = new IdType(baseReference.get());
+			Bundle base = api.getFhirWebserviceClientProvider().getLocalWebserviceClient().read(Bundle.class,
+					baseId.getIdPart(), baseId.getVersionIdPart());
 
-		reportEntryCapabilityStatement.setFormat(responseEntryCapabilityStatement.getFormat().stream()
-				.filter(f -> "application/fhir+xml".equals(f.getCode()) || "application/fhir+json".equals(f.getCode()))
-				.collect(Collectors.toList()));
+			if (deltaEnabled && !baseReference.get().equals(reportReference))
+			{
+				Optional<Bundle> delta = ReportDelta.create(base, new ReportDelta.Base(baseReference.get(),
+						ReportBundleHash.compute(api.getFhirContext(), base)), reportBundle);
 
-		for (CapabilityStatement.CapabilityStatementRestComponent oldRestComponent : responseEntryCapabilityStatement
-				.getRest())
-		{
-			List<CapabilityStatement.CapabilityStatementRestResourceComponent> resources = oldRestComponent
-					.getResource().stream().map(r -> new CapabilityStatement.CapabilityStatementRestResourceComponent()
-							.setType(r.getType()).setSearchParam(removeDocumentation(r.getSearchParam())))
-					.toList();
+				if (delta.isPresent())
+					return Optional.of(storeTransferReportBundle(delta.get(), DELTA_IDENTIFIER_SUFFIX, "delta",
+							reportBundle, hrpIdentifier, taskId));
 
-			CapabilityStatement.CapabilityStatementRestComponent newRestComponent = new CapabilityStatement.CapabilityStatementRestComponent()
-					.setResource(resources).setMode(oldRestComponent.getMode())
-					.setSearchParam(removeDocumentation(oldRestComponent.getSearchParam()));
+				logger.info("Search Bundle changed since report with id '{}', no delta report for HRP '{}'",
+						baseReference.get(), hrpIdentifier);
+			}
 
-			reportEntryCapabilityStatement.addRest(newRestComponent);
-		}
+			// HRPs of older plugin versions would store the stubbed CapabilityStatement, compact reports are opt-in
+			if (!compactEnabled)
+				return Optional.empty();
 
-		reportEntry.setResource(reportEntryCapabilityStatement);
-	}
+			Optional<Bundle> compact = createCompactReport(base, reportBundle);
 
-	private List<CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent> removeDocumentation(
-			List<CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent> searchParams)
-	{
-		return searchParams.stream().map(s -> s.setDocumentation(null)).toList();
+			if (compact.isPresent())
+				return Optional.of(storeTransferReportBundle(compact.get(), COMPACT_IDENTIFIER_SUFFIX, "compact",
+						reportBundle, hrpIdentifier, taskId));
+
+			return Optional.empty();
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not create transfer report for HRP '{}' and Task with id '{}', sending full report - {}",
+					hrpIdentifier, taskId, exception.getMessage());
+			return Optional.empty();
+		}
 	}
 
-	private void checkReportBundle(Bundle searchBundle, Bundle reportBundle, String hrpIdentifier)
+	private Optional<Bundle> createCompactReport(Bundle base, Bundle reportBundle)
 	{
-		int requests = searchBundle.getEntry().size();
+		Optional<String> baseFingerprint = getCapabilityStatement(base).flatMap(CapabilityFingerprint::get);
+		Optional<String> reportFingerprint = getCapabilityStatement(reportBundle).flatMap(CapabilityFingerprint::get);
 
-		List<String> errorCodes = reportBundle.getEntry().stream().filter(e -> e.hasResponse())
-				.map(e -> e.getResponse()).filter(r -> r.hasStatus()).map(r -> r.getStatus())
-				.filter(s -> !s.contains(RESPONSE_OK)).toList();
+		if (baseFingerprint.isEmpty() || !baseFingerprint.equals(reportFingerprint))
+			return Optional.empty();
 
-		if (errorCodes.size() >= requests)
-			throw new RuntimeException(
-					"Report Bundle for HRP '" + hrpIdentifier + "' only contains error status codes");
+		Bundle compact = new Bundle();
+		compact.setMeta(reportBundle.getMeta().copy());
+		compact.getMeta().setVersionId(null);
+		compact.setIdentifier(reportBundle.getIdentifier().copy());
+		compact.setType(reportBundle.getType());
+
+		for (Bundle.BundleEntryComponent entry : reportBundle.getEntry())
+		{
+			Bundle.BundleEntryComponent copy = entry.copy();
+			if (copy.getResource() instanceof CapabilityStatement capabilityStatement)
+				copy.setResource(CapabilityFingerprint.stub(capabilityStatement));
+
+			compact.addEntry(copy);
+		}
+
+		return Optional.of(compact);
 	}
 
-	private String storeReportBundle(Bundle responseBundle, String hrpIdentifier, String taskId)
+	private Optional<CapabilityStatement> getCapabilityStatement(Bundle report)
 	{
-		PreferReturnMinimal client = api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-				.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+		return report.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof CapabilityStatement).map(r -> (CapabilityStatement) r).findFirst();
+	}
 
+	private String storeTransferReportBundle(Bundle transferBundle, String identifierSuffix, String kind,
+			Bundle reportBundle, String hrpIdentifier, String taskId)
+	{
 		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
 				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
-		IdType bundleIdType = client.updateConditionaly(responseBundle, Map.of("identifier", Collections.singletonList(
-				ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER + "|" + localOrganizationIdentifier)));
+		transferBundle.getIdentifier().setValue(localOrganizationIdentifier + identifierSuffix);
 
-		String absoluteId = new IdType(api.getEndpointProvider().getLocalEndpointAddress(), ResourceType.Bundle.name(),
-				bundleIdType.getIdPart(), bundleIdType.getVersionIdPart()).getValue();
+		String absoluteId = toAbsoluteId(reportBundleStore.store(
+				api.getFhirWebserviceClientProvider().getLocalWebserviceClient(), transferBundle,
+				ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER + "|" + localOrganizationIdentifier
+						+ identifierSuffix));
 
-		logger.info("Stored report Bundle with id '{}' for HRP '{}' and Task with id '{}'", absoluteId, hrpIdentifier,
-				taskId);
+		logger.info("Stored {} report Bundle with id '{}' containing {} of {} entries for HRP '{}' and Task with id "
+				+ "'{}'", kind, absoluteId, transferBundle.getEntry().size(), reportBundle.getEntry().size(),
+				hrpIdentifier, taskId);
 
 		return absoluteId;
 	}
+
+	private String toAbsoluteId(IdType bundleIdType)
+	{
+		return new IdType(api.getEndpointProvider().getLocalEndpointAddress(), ResourceType.Bundle.name(),
+				bundleIdType.getIdPart(), bundleIdType.getVersionIdPart()).getValue();
+	}
 }
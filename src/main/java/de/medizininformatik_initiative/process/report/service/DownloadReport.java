@@ -2,9 +2,11 @@ package de.medizininformatik_initiative.process.report.service;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.camunda.bpm.engine.delegate.BpmnError;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Base64BinaryType;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Reference;
@@ -14,6 +16,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import de.medizininformatik_initiative.process.report.util.InlineReport;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -26,11 +30,16 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 	private static final Logger logger = LoggerFactory.getLogger(DownloadReport.class);
 
 	private final ReportStatusGenerator statusGenerator;
+	private final BundleVariables bundleVariables;
+	private final long inlineMaxBytes;
 
-	public DownloadReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public DownloadReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator,
+			BundleVariables bundleVariables, long inlineMaxBytes)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.bundleVariables = bundleVariables;
+		this.inlineMaxBytes = inlineMaxBytes;
 	}
 
 	@Override
@@ -38,6 +47,10 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "reportStatusGenerator");
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
+
+		if (inlineMaxBytes <= 0)
+			throw new IllegalArgumentException("inlineMaxBytes <= 0");
 	}
 
 	@Override
@@ -54,8 +67,10 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 
 		try
 		{
-			Bundle reportBundle = downloadReportBundle(reportReference);
-			variables.setResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, reportBundle);
+			Bundle reportBundle = getInlineReportBundle(task, reportReference)
+					.orElseGet(() -> downloadReportBundle(reportReference));
+			bundleVariables.set(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, reportBundle,
+					reportReference.isAbsolute() ? reportReference.getValue() : null);
 		}
 		catch (Exception exception)
 		{
@@ -93,6 +108,33 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 		return new IdType(reportReferences.get(0));
 	}
 
+	private Optional<Bundle> getInlineReportBundle(Task task, IdType reportReference)
+	{
+		Optional<byte[]> inline = api.getTaskHelper()
+				.getInputParameterValues(task, ConstantsReport.CODESYSTEM_REPORT,
+						ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_INLINE, Base64BinaryType.class)
+				.filter(Base64BinaryType::hasValue).map(Base64BinaryType::getValue).findFirst();
+
+		if (inline.isEmpty())
+			return Optional.empty();
+
+		try
+		{
+			Bundle reportBundle = InlineReport.decode(api.getFhirContext(), inline.get(), inlineMaxBytes);
+
+			logger.info("Using inline copy of report with id '{}' from Task with id '{}'", reportReference.getValue(),
+					task.getId());
+
+			return Optional.of(reportBundle);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not decode inline copy of report with id '{}' from Task with id '{}', downloading "
+					+ "report - {}", reportReference.getValue(), task.getId(), exception.getMessage());
+			return Optional.empty();
+		}
+	}
+
 	private Bundle downloadReportBundle(IdType reportReference)
 	{
 		BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider()
@@ -6,12 +6,15 @@ import java.util.Objects;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
@@ -29,16 +32,18 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 
 	private final ReportStatusGenerator statusGenerator;
 	private final DataLogger dataLogger;
+	private final BundleVariables bundleVariables;
 
 	private final String processVersion;
 
 	public DownloadSearchBundle(ProcessPluginApi api, ReportStatusGenerator statusGenerator, DataLogger dataLogger,
-			String processVersion)
+			BundleVariables bundleVariables, String processVersion)
 	{
 		super(api);
 
 		this.statusGenerator = statusGenerator;
 		this.dataLogger = dataLogger;
+		this.bundleVariables = bundleVariables;
 		this.processVersion = processVersion;
 	}
 
@@ -49,6 +54,7 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
 		Objects.requireNonNull(dataLogger, "dataLogger");
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
 		Objects.requireNonNull(processVersion, "processVersion");
 	}
 
@@ -72,7 +78,8 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 					target.getOrganizationIdentifierValue(), task.getId());
 			dataLogger.logResource("Search Bundle", searchBundle);
 
-			variables.setResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, searchBundle);
+			bundleVariables.set(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, searchBundle,
+					getSource(target, searchBundle));
 		}
 		catch (Exception exception)
 		{
@@ -100,6 +107,15 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 		}
 	}
 
+	private String getSource(Target target, Bundle searchBundle)
+	{
+		if (!searchBundle.getIdElement().hasIdPart() || !searchBundle.getMeta().hasVersionId())
+			return null;
+
+		return new IdType(target.getEndpointUrl(), ResourceType.Bundle.name(),
+				searchBundle.getIdElement().getIdPart(), searchBundle.getMeta().getVersionId()).getValue();
+	}
+
 	private Bundle searchSearchBundle(Target target, String searchBundleIdentifier)
 	{
 		BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider()
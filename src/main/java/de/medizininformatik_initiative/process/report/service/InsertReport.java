@@ -1,12 +1,12 @@
 package de.medizininformatik_initiative.process.report.service;
 
-import java.util.Collections;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.camunda.bpm.engine.delegate.BpmnError;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.ResourceType;
@@ -16,23 +16,37 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import de.medizininformatik_initiative.process.report.util.CapabilityCache;
+import de.medizininformatik_initiative.process.report.util.CapabilityFingerprint;
+import de.medizininformatik_initiative.process.report.util.ReportBundleHash;
+import de.medizininformatik_initiative.process.report.util.ReportBundleStore;
+import de.medizininformatik_initiative.process.report.util.ReportDelta;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
-import dev.dsf.fhir.client.PreferReturnMinimal;
+import dev.dsf.fhir.client.BasicFhirWebserviceClient;
+import dev.dsf.fhir.client.FhirWebserviceClient;
 
 public class InsertReport extends AbstractServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(InsertReport.class);
 
 	private final ReportStatusGenerator statusGenerator;
+	private final ReportBundleStore reportBundleStore;
+	private final CapabilityCache capabilityCache;
+	private final BundleVariables bundleVariables;
 
-	public InsertReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public InsertReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator,
+			ReportBundleStore reportBundleStore, CapabilityCache capabilityCache, BundleVariables bundleVariables)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.reportBundleStore = reportBundleStore;
+		this.capabilityCache = capabilityCache;
+		this.bundleVariables = bundleVariables;
 	}
 
 	@Override
@@ -40,6 +54,9 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "reportStatusGenerator");
+		Objects.requireNonNull(reportBundleStore, "reportBundleStore");
+		Objects.requireNonNull(capabilityCache, "capabilityCache");
+		Objects.requireNonNull(bundleVariables, "bundleVariables");
 	}
 
 	@Override
@@ -49,20 +66,28 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 		String sendingOrganization = task.getRequester().getIdentifier().getValue();
 		Identifier reportIdentifier = getReportIdentifier(task);
 
-		Bundle report = variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
-		report.setId("").getMeta().setVersionId("").setTag(null);
-		report.setIdentifier(reportIdentifier);
+		Bundle report = bundleVariables.get(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
 
-		api.getReadAccessHelper().addLocal(report);
-		api.getReadAccessHelper().addOrganization(report, task.getRequester().getIdentifier().getValue());
-
-		PreferReturnMinimal client = api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-				.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
 		try
 		{
-			IdType reportId = client.updateConditionaly(report, Map.of("identifier",
-					Collections.singletonList(reportIdentifier.getSystem() + "|" + reportIdentifier.getValue())));
+			FhirWebserviceClient localClient = api.getFhirWebserviceClientProvider().getLocalWebserviceClient();
+			String identifier = reportIdentifier.getSystem() + "|" + reportIdentifier.getValue();
+
+			Optional<ReportDelta.Base> deltaBase = ReportDelta.getBase(report);
+			if (deltaBase.isPresent())
+				report = mergeDeltaReport(localClient, identifier, deltaBase.get(), report, sendingOrganization,
+						task.getId());
+
+			resolveCapabilityStatement(localClient, identifier, report, sendingOrganization);
+
+			report.setId("").getMeta().setVersionId("").setTag(null);
+			report.setIdentifier(reportIdentifier);
+
+			api.getReadAccessHelper().addLocal(report);
+			api.getReadAccessHelper().addOrganization(report, task.getRequester().getIdentifier().getValue());
+
+			IdType reportId = reportBundleStore.store(localClient, report, identifier);
+			getCapabilityStatement(report).ifPresent(c -> capabilityCache.put(sendingOrganization, c));
 
 			task.addOutput(statusGenerator
 					.createReportStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIVE_OK));
@@ -92,6 +117,67 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 		}
 	}
 
+	private Bundle mergeDeltaReport(FhirWebserviceClient localClient, String identifier, ReportDelta.Base base,
+			Bundle delta, String sendingOrganization, String taskId)
+	{
+		// the stored report is used as base if it has the content of the base report at the sending organization
+		Optional<Bundle> stored = reportBundleStore.read(localClient, identifier)
+				.filter(r -> base.hash().equals(ReportBundleHash.compute(api.getFhirContext(), r)));
+
+		Bundle baseReport;
+		if (stored.isPresent())
+			baseReport = stored.get();
+		else
+		{
+			logger.info("Stored report from organization '{}' differs from base of delta report, downloading base "
+					+ "report with id '{}' for Task with id '{}'", sendingOrganization, base.reference(), taskId);
+
+			IdType baseReference = new IdType(base.reference());
+			BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider()
+					.getWebserviceClient(baseReference.getBaseUrl())
+					.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+			baseReport = client.read(Bundle.class, baseReference.getIdPart(), baseReference.getVersionIdPart());
+
+			if (!base.hash().equals(ReportBundleHash.compute(api.getFhirContext(), baseReport)))
+				throw new IllegalArgumentException("Base report with id '" + base.reference()
+						+ "' does not match hash of delta report");
+		}
+
+		logger.info("Merging delta report with {} changed entries from organization '{}' onto base report with {} "
+				+ "entries for Task with id '{}'", delta.getEntry().size(), sendingOrganization,
+				baseReport.getEntry().size(), taskId);
+
+		return ReportDelta.merge(baseReport, delta);
+	}
+
+	private void resolveCapabilityStatement(FhirWebserviceClient localClient, String identifier, Bundle report,
+			String sendingOrganization)
+	{
+		for (Bundle.BundleEntryComponent entry : report.getEntry())
+		{
+			if (!(entry.getResource() instanceof CapabilityStatement stub) || !CapabilityFingerprint.isStub(stub))
+				continue;
+
+			String fingerprint = CapabilityFingerprint.get(stub).get();
+
+			// capabilities not cached since the last BPE restart are taken from the stored report
+			CapabilityStatement known = capabilityCache.get(sendingOrganization, fingerprint)
+					.or(() -> reportBundleStore.read(localClient, identifier).flatMap(this::getCapabilityStatement)
+							.filter(c -> !CapabilityFingerprint.isStub(c))
+							.filter(c -> CapabilityFingerprint.get(c).map(fingerprint::equals).orElse(false)))
+					.orElseThrow(() -> new IllegalArgumentException("Capabilities with fingerprint '" + fingerprint
+							+ "' of organization '" + sendingOrganization + "' unknown"));
+
+			entry.setResource(CapabilityFingerprint.expand(stub, known));
+		}
+	}
+
+	private Optional<CapabilityStatement> getCapabilityStatement(Bundle report)
+	{
+		return report.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof CapabilityStatement).map(r -> (CapabilityStatement) r).findFirst();
+	}
+
 	private Identifier getReportIdentifier(Task task)
 	{
 		return new Identifier().setSystem(ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER)
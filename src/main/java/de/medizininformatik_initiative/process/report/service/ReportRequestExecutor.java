@@ -0,0 +1,366 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.CountIndex;
+import de.medizininformatik_initiative.process.report.client.NdjsonCountEngine;
+import de.medizininformatik_initiative.process.report.client.QueryTimings;
+import de.medizininformatik_initiative.process.report.client.ResponseSizeExceededException;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.util.CapabilityFingerprint;
+import de.medizininformatik_initiative.process.report.util.ReportEntry;
+
+// executes report search requests, used for reports and for precomputing requests of new search Bundle versions
+public class ReportRequestExecutor implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ReportRequestExecutor.class);
+
+	private static final String RESPONSE_OK = "200";
+	private static final String RESPONSE_ERROR = "500";
+
+	private static final Pattern SUMMARY_COUNT_PARAM = Pattern.compile("[?&]_summary=count(&|$)");
+	private static final Pattern COUNT_PARAM = Pattern.compile("[?&]_count=");
+	private static final String TOTAL_ESTIMATE_PARAM = "_total=estimate";
+	private static final double ASYNC_THRESHOLD_PERCENTILE = 0.5;
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	private final FhirContext fhirContext;
+	private final ShardedFhirStoreSearchClient fhirStoreSearchClient;
+	private final CountIndex countIndex;
+	private final NdjsonCountEngine ndjsonCountEngine;
+	private final QueryTimings queryTimings;
+	private final int queryParallelism;
+	private final List<String> totalEstimatePatterns;
+	private final List<String> asyncPatterns;
+	private final long asyncThresholdMillis;
+
+	public ReportRequestExecutor(FhirContext fhirContext, ShardedFhirStoreSearchClient fhirStoreSearchClient,
+			CountIndex countIndex, NdjsonCountEngine ndjsonCountEngine, QueryTimings queryTimings,
+			int queryParallelism, List<String> totalEstimatePatterns, List<String> asyncPatterns,
+			long asyncThresholdMillis)
+	{
+		this.fhirContext = fhirContext;
+		this.fhirStoreSearchClient = fhirStoreSearchClient;
+		this.countIndex = countIndex;
+		this.ndjsonCountEngine = ndjsonCountEngine;
+		this.queryTimings = queryTimings;
+		this.queryParallelism = queryParallelism;
+		this.totalEstimatePatterns = totalEstimatePatterns;
+		this.asyncPatterns = asyncPatterns;
+		this.asyncThresholdMillis = asyncThresholdMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(fhirContext, "fhirContext");
+		Objects.requireNonNull(fhirStoreSearchClient, "fhirStoreSearchClient");
+		Objects.requireNonNull(countIndex, "countIndex");
+		Objects.requireNonNull(ndjsonCountEngine, "ndjsonCountEngine");
+		Objects.requireNonNull(queryTimings, "queryTimings");
+		Objects.requireNonNull(totalEstimatePatterns, "totalEstimatePatterns");
+		Objects.requireNonNull(asyncPatterns, "asyncPatterns");
+
+		if (queryParallelism < 1)
+			throw new IllegalArgumentException("queryParallelism < 1");
+	}
+
+	// identical requests after canonicalization are executed once, the entry is copied for all their urls
+	public List<ReportEntry> execute(List<String> urls)
+	{
+		Map<String, String> distinctByCanonical = new LinkedHashMap<>();
+		urls.forEach(url -> distinctByCanonical.putIfAbsent(canonicalize(toCountOnlyUrl(url)), url));
+
+		List<String> distinctUrls = new ArrayList<>(distinctByCanonical.values());
+		if (distinctUrls.size() < urls.size())
+			logger.info("Executing {} distinct of {} report search requests", distinctUrls.size(), urls.size());
+
+		List<ReportEntry> distinctEntries = executeDistinctRequests(distinctUrls);
+		queryTimings.persist();
+
+		Map<String, ReportEntry> entriesByCanonical = new HashMap<>();
+		for (int i = 0; i < distinctUrls.size(); i++)
+			entriesByCanonical.put(canonicalize(toCountOnlyUrl(distinctUrls.get(i))), distinctEntries.get(i));
+
+		return urls.stream().map(url -> entriesByCanonical.get(canonicalize(toCountOnlyUrl(url))).withUrl(url))
+				.toList();
+	}
+
+	// responses are projected to report entries as soon as they arrive, full responses are not kept
+	private List<ReportEntry> executeDistinctRequests(List<String> urls)
+	{
+		// requests supported by a fresh count index are answered locally, the NDJSON engine counts the remaining
+		// supported requests in one pass per resource type
+		Map<String, ReportEntry> localEntries = new HashMap<>();
+		countIndex.count(urls)
+				.forEach((url, result) -> localEntries.put(url, toEntry(url, () -> project(url, result))));
+		ndjsonCountEngine.count(urls.stream().filter(url -> !localEntries.containsKey(url)).toList())
+				.forEach((url, result) -> localEntries.put(url, toEntry(url, () -> project(url, result))));
+
+		// slow requests are sent first with respond-async and polled while the remaining requests are executed
+		Map<String, CompletableFuture<ReportEntry>> asyncEntries = new HashMap<>();
+		urls.stream().filter(url -> !localEntries.containsKey(url)).filter(this::isExecutedAsync)
+				.forEach(url -> asyncEntries.put(url, fhirStoreSearchClient.searchAsync(toCountOnlyUrl(url))
+						.thenApply(result -> project(url, result))));
+
+		if (!asyncEntries.isEmpty())
+			logger.info("Executing {} report search requests asynchronously", asyncEntries.size());
+
+		List<ReportEntry> syncEntries = executeSyncRequests(urls.stream()
+				.filter(url -> !localEntries.containsKey(url) && !asyncEntries.containsKey(url)).toList());
+
+		List<ReportEntry> entries = new ArrayList<>(urls.size());
+		int syncIndex = 0;
+		for (String url : urls)
+		{
+			if (localEntries.containsKey(url))
+				entries.add(localEntries.get(url));
+			else if (asyncEntries.containsKey(url))
+				entries.add(toEntry(url, () -> join(asyncEntries.get(url))));
+			else
+				entries.add(syncEntries.get(syncIndex++));
+		}
+
+		return entries;
+	}
+
+	private List<ReportEntry> executeSyncRequests(List<String> urls)
+	{
+		if (queryParallelism == 1)
+			return urls.stream().map(this::executeRequest).toList();
+
+		ExecutorService executor = Executors.newFixedThreadPool(queryParallelism);
+		try
+		{
+			List<CompletableFuture<ReportEntry>> entries = urls.stream()
+					.map(url -> CompletableFuture.supplyAsync(() -> executeRequest(url), executor)).toList();
+
+			return entries.stream().map(CompletableFuture::join).toList();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private ReportEntry executeRequest(String url)
+	{
+		return toEntry(url, () ->
+		{
+			logger.debug("Executing report search request '{}'", url);
+
+			return project(url,
+					isTotalEstimated(url) ? searchEstimated(url) : fhirStoreSearchClient.search(toCountOnlyUrl(url)));
+		});
+	}
+
+	private ReportEntry join(CompletableFuture<ReportEntry> result)
+	{
+		try
+		{
+			return result.join();
+		}
+		catch (CompletionException exception)
+		{
+			if (exception.getCause() instanceof RuntimeException runtimeException)
+				throw runtimeException;
+			else
+				throw exception;
+		}
+	}
+
+	private ReportEntry toEntry(String url, Supplier<ReportEntry> search)
+	{
+		try
+		{
+			return search.get();
+		}
+		catch (ResponseSizeExceededException exception)
+		{
+			OperationOutcome outcome = new OperationOutcome();
+			outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+					.setCode(OperationOutcome.IssueType.TOOLONG).setDiagnostics(exception.getMessage());
+
+			return ReportEntry.error(url, String.valueOf(exception.getStatusCode()), outcome);
+		}
+		catch (BaseServerResponseException exception)
+		{
+			logger.warn("Could not execute report search request '{}' - {}", url, exception.getMessage());
+
+			OperationOutcome outcome = new OperationOutcome();
+			outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+					.setCode(OperationOutcome.IssueType.EXCEPTION).setDiagnostics(exception.getMessage());
+
+			return ReportEntry.error(url, String.valueOf(exception.getStatusCode()), outcome);
+		}
+		catch (ArithmeticException exception)
+		{
+			// e.g. summed totals of shards above the maximum of Bundle.total
+			logger.warn("Could not compute total of report search request '{}' - {}", url, exception.getMessage());
+
+			OperationOutcome outcome = new OperationOutcome();
+			outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+					.setCode(OperationOutcome.IssueType.TOOLONG).setDiagnostics(exception.getMessage());
+
+			return ReportEntry.error(url, RESPONSE_ERROR, outcome);
+		}
+	}
+
+	public ReportEntry project(String url, Resource result)
+	{
+		// the time of the search is kept per entry, entries of report partitions may be taken from previous reports
+		if (result instanceof Bundle bundle)
+			return ReportEntry.searchset(url, RESPONSE_OK, bundle.getTotal(),
+					bundle.getTotalElement().hasExtension(ConstantsReport.EXTENSION_REPORT_COUNT_APPROXIMATE_URL),
+					bundle.getMeta().hasLastUpdated() ? bundle.getMeta().getLastUpdated() : new Date());
+		else if (result instanceof CapabilityStatement capabilityStatement)
+			return ReportEntry.capabilityStatement(url, RESPONSE_OK, toReportCapabilityStatement(capabilityStatement));
+		else
+			return ReportEntry.other(url, RESPONSE_OK);
+	}
+
+	private boolean isTotalEstimated(String url)
+	{
+		return matches(totalEstimatePatterns, url);
+	}
+
+	private boolean isExecutedAsync(String url)
+	{
+		if (CAPABILITY_STATEMENT_PATH.equals(url) || isTotalEstimated(url))
+			return false;
+
+		if (matches(asyncPatterns, url))
+			return true;
+
+		return asyncThresholdMillis > 0 && queryTimings
+				.getPercentile(toCountOnlyUrl(url), ASYNC_THRESHOLD_PERCENTILE).orElse(0) > asyncThresholdMillis;
+	}
+
+	private boolean matches(List<String> patterns, String url)
+	{
+		String resourceType = url.split("\\?", 2)[0];
+
+		return patterns.stream().anyMatch(p -> p.contains("?") ? url.startsWith(p) : p.equals(resourceType));
+	}
+
+	private Resource searchEstimated(String url)
+	{
+		try
+		{
+			Resource result = fhirStoreSearchClient.search(toCountOnlyUrl(url) + "&" + TOTAL_ESTIMATE_PARAM);
+
+			if (result instanceof Bundle bundle && bundle.hasTotal())
+			{
+				bundle.getTotalElement().addExtension(ConstantsReport.EXTENSION_REPORT_COUNT_APPROXIMATE_URL,
+						new BooleanType(true));
+				return bundle;
+			}
+
+			logger.info("FHIR store returned no estimated total for report search request '{}', using exact count",
+					url);
+		}
+		catch (ResponseSizeExceededException exception)
+		{
+			throw exception;
+		}
+		catch (BaseServerResponseException exception)
+		{
+			logger.info("FHIR store does not support estimated total for report search request '{}', using exact count"
+					+ " - {}", url, exception.getMessage());
+		}
+
+		return fhirStoreSearchClient.search(toCountOnlyUrl(url));
+	}
+
+	public static String toCountOnlyUrl(String url)
+	{
+		// some servers ignore _summary=count for certain resource types, _count=0 forbids returning entries
+		if (SUMMARY_COUNT_PARAM.matcher(url).find() && !COUNT_PARAM.matcher(url).find())
+			return url + "&_count=0";
+		else
+			return url;
+	}
+
+	// search parameters are combined with AND, their order does not change the result
+	public static String canonicalize(String url)
+	{
+		String[] parts = url.split("\\?", 2);
+
+		if (parts.length < 2)
+			return url;
+
+		return parts[0] + "?" + Arrays.stream(parts[1].split("&")).sorted().collect(Collectors.joining("&"));
+	}
+
+	private CapabilityStatement toReportCapabilityStatement(CapabilityStatement responseEntryCapabilityStatement)
+	{
+		CapabilityStatement reportEntryCapabilityStatement = new CapabilityStatement();
+
+		reportEntryCapabilityStatement.setKind(CapabilityStatement.CapabilityStatementKind.CAPABILITY);
+		reportEntryCapabilityStatement.setStatus(responseEntryCapabilityStatement.getStatus());
+		reportEntryCapabilityStatement.setDate(responseEntryCapabilityStatement.getDate());
+		reportEntryCapabilityStatement.setName("Server");
+
+		reportEntryCapabilityStatement.getSoftware().setName(responseEntryCapabilityStatement.getSoftware().getName());
+		reportEntryCapabilityStatement.getSoftware()
+				.setVersion(responseEntryCapabilityStatement.getSoftware().getVersion());
+
+		reportEntryCapabilityStatement.setFhirVersion(responseEntryCapabilityStatement.getFhirVersion());
+
+		reportEntryCapabilityStatement.setFormat(responseEntryCapabilityStatement.getFormat().stream()
+				.filter(f -> "application/fhir+xml".equals(f.getCode()) || "application/fhir+json".equals(f.getCode()))
+				.collect(Collectors.toList()));
+
+		for (CapabilityStatement.CapabilityStatementRestComponent oldRestComponent : responseEntryCapabilityStatement
+				.getRest())
+		{
+			List<CapabilityStatement.CapabilityStatementRestResourceComponent> resources = oldRestComponent
+					.getResource().stream().map(r -> new CapabilityStatement.CapabilityStatementRestResourceComponent()
+							.setType(r.getType()).setSearchParam(removeDocumentation(r.getSearchParam())))
+					.toList();
+
+			CapabilityStatement.CapabilityStatementRestComponent newRestComponent = new CapabilityStatement.CapabilityStatementRestComponent()
+					.setResource(resources).setMode(oldRestComponent.getMode())
+					.setSearchParam(removeDocumentation(oldRestComponent.getSearchParam()));
+
+			reportEntryCapabilityStatement.addRest(newRestComponent);
+		}
+
+		// receivers knowing the fingerprint are sent the capabilities without rest components
+		CapabilityFingerprint.set(fhirContext, reportEntryCapabilityStatement);
+
+		return reportEntryCapabilityStatement;
+	}
+
+	private List<CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent> removeDocumentation(
+			List<CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent> searchParams)
+	{
+		return searchParams.stream().map(s -> s.setDocumentation(null)).toList();
+	}
+}
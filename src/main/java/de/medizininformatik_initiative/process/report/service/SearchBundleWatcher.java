@@ -0,0 +1,207 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Endpoint;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.InstantType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.ExecutionWindows;
+import de.medizininformatik_initiative.process.report.util.PrecomputedEntries;
+import de.medizininformatik_initiative.process.report.util.ReportEntry;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+public class SearchBundleWatcher implements InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(SearchBundleWatcher.class);
+
+	private static final String RESPONSE_OK = "200";
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	private final ProcessPluginApi api;
+	private final ReportRequestExecutor reportRequestExecutor;
+	private final PrecomputedEntries precomputedEntries;
+	private final ExecutionWindows executionWindows;
+	private final String hrpIdentifier;
+	private final String processVersion;
+	private final long pollIntervalMillis;
+
+	private ScheduledExecutorService scheduler;
+
+	// version of the search Bundle seen by the last poll, null before the first poll
+	private Date lastUpdated;
+	private Set<String> urls;
+
+	public SearchBundleWatcher(ProcessPluginApi api, ReportRequestExecutor reportRequestExecutor,
+			PrecomputedEntries precomputedEntries, ExecutionWindows executionWindows, String hrpIdentifier,
+			String processVersion, long pollIntervalMillis)
+	{
+		this.api = api;
+		this.reportRequestExecutor = reportRequestExecutor;
+		this.precomputedEntries = precomputedEntries;
+		this.executionWindows = executionWindows;
+		this.hrpIdentifier = hrpIdentifier;
+		this.processVersion = processVersion;
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(api, "api");
+		Objects.requireNonNull(reportRequestExecutor, "reportRequestExecutor");
+		Objects.requireNonNull(precomputedEntries, "precomputedEntries");
+		Objects.requireNonNull(executionWindows, "executionWindows");
+		Objects.requireNonNull(processVersion, "processVersion");
+
+		if (pollIntervalMillis <= 0)
+			return;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			Thread thread = new Thread(r, "report-search-bundle-watcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy()
+	{
+		if (scheduler != null)
+			scheduler.shutdownNow();
+	}
+
+	private void poll()
+	{
+		String searchBundleIdentifier = ConstantsReport.CODESYSTEM_REPORT + "|"
+				+ ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE + processVersion;
+
+		try
+		{
+			// only versions changed since the last poll are returned, unchanged search Bundles result in empty
+			// responses
+			Map<String, List<String>> parameters = new HashMap<>();
+			parameters.put("identifier", Collections.singletonList(searchBundleIdentifier));
+			if (lastUpdated != null)
+				parameters.put("_lastUpdated",
+						Collections.singletonList("gt" + new InstantType(lastUpdated).getValueAsString()));
+
+			Bundle result = api.getFhirWebserviceClientProvider().getWebserviceClient(getHrpEndpointAddress())
+					.searchWithStrictHandling(Bundle.class, parameters);
+
+			result.getEntry().stream().map(Bundle.BundleEntryComponent::getResource).filter(r -> r instanceof Bundle)
+					.map(r -> (Bundle) r).findFirst().ifPresent(this::onSearchBundle);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not poll search Bundle '{}' from HRP - {}", searchBundleIdentifier,
+					exception.getMessage());
+		}
+	}
+
+	private void onSearchBundle(Bundle searchBundle)
+	{
+		boolean initial = lastUpdated == null;
+		Set<String> previousUrls = urls;
+
+		lastUpdated = searchBundle.getMeta().getLastUpdated();
+		urls = getUrls(searchBundle);
+
+		// the first poll after a restart only records the current version
+		if (initial)
+			return;
+
+		try
+		{
+			CheckSearchBundle.check(searchBundle);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("New search Bundle version {} from HRP not valid, no report search requests precomputed - {}",
+					searchBundle.getMeta().getVersionId(), exception.getMessage());
+			return;
+		}
+
+		List<String> changedUrls = urls.stream().filter(url -> !previousUrls.contains(url)).toList();
+		if (changedUrls.isEmpty())
+			return;
+
+		LocalDateTime now = LocalDateTime.now();
+		long delayMillis = executionWindows.contains(now) ? 0
+				: executionWindows.nextStart(now).map(s -> Duration.between(now, s).toMillis()).orElse(0L);
+
+		logger.info("New search Bundle version {} from HRP with {} changed report search requests, precomputing in "
+				+ "{} ms", searchBundle.getMeta().getVersionId(), changedUrls.size(), delayMillis);
+
+		scheduler.schedule(() -> precompute(changedUrls), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private Set<String> getUrls(Bundle searchBundle)
+	{
+		return searchBundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasRequest)
+				.map(e -> e.getRequest().getUrl()).filter(u -> u != null && !CAPABILITY_STATEMENT_PATH.equals(u))
+				.collect(Collectors.toSet());
+	}
+
+	// requests are executed like report requests, only successful counts are kept
+	private void precompute(List<String> urls)
+	{
+		try
+		{
+			List<ReportEntry> entries = reportRequestExecutor.execute(urls).stream()
+					.filter(e -> RESPONSE_OK.equals(e.status()) && e.total() != null).toList();
+			entries.forEach(precomputedEntries::put);
+
+			logger.info("Precomputed {} of {} changed report search requests", entries.size(), urls.size());
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not precompute changed report search requests - {}", exception.getMessage());
+		}
+	}
+
+	private String getHrpEndpointAddress()
+	{
+		Identifier parentIdentifier = NamingSystems.OrganizationIdentifier.withValue(
+				ConstantsBase.NAMINGSYSTEM_DSF_ORGANIZATION_IDENTIFIER_MEDICAL_INFORMATICS_INITIATIVE_CONSORTIUM);
+		Coding hrpRole = new Coding().setSystem(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE)
+				.setCode(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE_VALUE_HRP);
+
+		String identifier = hrpIdentifier != null ? hrpIdentifier
+				: api.getOrganizationProvider().getOrganizations(parentIdentifier, hrpRole).stream()
+						.map(NamingSystems.OrganizationIdentifier::findFirst).flatMap(i -> i.stream())
+						.map(Identifier::getValue).findFirst()
+						.orElseThrow(() -> new RuntimeException("Could not find any organization with role '"
+								+ hrpRole.getCode() + "' and parent organization '" + parentIdentifier.getValue()
+								+ "'"));
+
+		return api.getEndpointProvider()
+				.getEndpoint(parentIdentifier, NamingSystems.OrganizationIdentifier.withValue(identifier), hrpRole)
+				.map(Endpoint::getAddress).orElseThrow(() -> new RuntimeException(
+						"Could not find any endpoint of '" + hrpRole.getCode() + "' with identifier '" + identifier
+								+ "'"));
+	}
+}
@@ -5,6 +5,7 @@ import java.util.Optional;
 import java.util.function.Supplier;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.BooleanType;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Endpoint;
 import org.hl7.fhir.r4.model.Identifier;
@@ -56,6 +57,21 @@ public class SelectTargetHrp extends AbstractServiceDelegate
 
 		Target target = variables.createTarget(hrpIdentifier, endpointIdentifier, endpoint.getAddress());
 		variables.setTarget(target);
+
+		variables.setBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_DRY_RUN, isDryRun(startTask));
+	}
+
+	private boolean isDryRun(Task task)
+	{
+		boolean dryRun = api.getTaskHelper()
+				.getFirstInputParameterValue(task, ConstantsReport.CODESYSTEM_REPORT,
+						ConstantsReport.CODESYSTEM_REPORT_VALUE_DRY_RUN, BooleanType.class)
+				.map(BooleanType::booleanValue).orElse(false);
+
+		if (dryRun)
+			logger.info("Dry run requested in Task with id '{}', creating query plan instead of report", task.getId());
+
+		return dryRun;
 	}
 
 	private Optional<String> extractHrpIdentifierFromTask(Task task)
@@ -1,7 +1,12 @@
 package de.medizininformatik_initiative.process.report.service;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Objects;
 import java.util.Optional;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
@@ -21,9 +26,13 @@ public class SetTimer extends AbstractServiceDelegate
 {
 	private static final Logger logger = LoggerFactory.getLogger(SetTimer.class);
 
-	public SetTimer(ProcessPluginApi api)
+	private final long jitterWindowMillis;
+
+	public SetTimer(ProcessPluginApi api, long jitterWindowMillis)
 	{
 		super(api);
+
+		this.jitterWindowMillis = jitterWindowMillis;
 	}
 
 	@Override
@@ -34,14 +43,16 @@ public class SetTimer extends AbstractServiceDelegate
 		String timerInterval = getTimerInterval(variables);
 		logger.info("Executing report send process in timer interval '{}' for Task with id '{}'", timerInterval,
 				task.getId());
-		variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_TIMER_INTERVAL, timerInterval);
+		setStringIfChanged(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_TIMER_INTERVAL, timerInterval);
 
 		Optional<TimeType> firstExecutionTime = getFirstExecution(variables);
 		if (firstExecutionTime.isPresent())
 		{
 			String firstExecutionDateTime = calculateFirstExecutionDateTime(firstExecutionTime.get());
-			variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION, firstExecutionDateTime);
-			variables.setBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION_DELAYED, true);
+			setStringIfChanged(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION,
+					firstExecutionDateTime);
+			setBooleanIfChanged(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION_DELAYED,
+					true);
 
 			logger.info("First execution of report send process set to '{}' for Task with id '{}'",
 					firstExecutionDateTime, task.getId());
@@ -49,13 +60,27 @@ public class SetTimer extends AbstractServiceDelegate
 		}
 		else
 		{
-			variables.setBoolean(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION_DELAYED, false);
+			setBooleanIfChanged(variables, ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FIRST_EXECUTION_DELAYED,
+					false);
 		}
 
 		Target target = createLocalTarget(variables);
 		variables.setTarget(target);
 	}
 
+	// unchanged values are not written again, every write adds a variable update to the engine history
+	private void setStringIfChanged(Variables variables, String name, String value)
+	{
+		if (!Objects.equals(variables.getString(name), value))
+			variables.setString(name, value);
+	}
+
+	private void setBooleanIfChanged(Variables variables, String name, boolean value)
+	{
+		if (!Objects.equals(variables.getBoolean(name), value))
+			variables.setBoolean(name, value);
+	}
+
 	private String getTimerInterval(Variables variables)
 	{
 		return api.getTaskHelper()
@@ -74,7 +99,8 @@ public class SetTimer extends AbstractServiceDelegate
 
 	private String calculateFirstExecutionDateTime(TimeType time)
 	{
-		LocalDateTime dateTime = LocalDateTime.now().with(LocalTime.parse(time.getValue()));
+		LocalDateTime dateTime = LocalDateTime.now().with(LocalTime.parse(time.getValue()))
+				.plusSeconds(getJitterOffsetSeconds());
 
 		if (dateTime.isBefore(LocalDateTime.now()))
 			dateTime = dateTime.plusDays(1);
@@ -82,6 +108,35 @@ public class SetTimer extends AbstractServiceDelegate
 		return dateTime.toString();
 	}
 
+	// stable offset within the jitter window derived from the local organization identifier, spreads the reports
+	// of organizations with the same first execution time
+	private long getJitterOffsetSeconds()
+	{
+		long windowSeconds = jitterWindowMillis / 1000;
+
+		if (windowSeconds <= 0)
+			return 0;
+
+		String organizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
+
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(organizationIdentifier.getBytes(StandardCharsets.UTF_8));
+			long offset = Math.floorMod(ByteBuffer.wrap(digest).getLong(), windowSeconds);
+
+			logger.debug("Using first execution offset of {} s within jitter window of {} s for organization '{}'",
+					offset, windowSeconds, organizationIdentifier);
+
+			return offset;
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new RuntimeException(exception);
+		}
+	}
+
 	private Target createLocalTarget(Variables variables)
 	{
 		return variables.createTarget(
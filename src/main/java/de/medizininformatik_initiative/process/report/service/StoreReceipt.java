@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.util.AcknowledgedReports;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -22,11 +23,14 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	private static final Logger logger = LoggerFactory.getLogger(StoreReceipt.class);
 
 	private final ReportStatusGenerator statusGenerator;
+	private final AcknowledgedReports acknowledgedReports;
 
-	public StoreReceipt(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public StoreReceipt(ProcessPluginApi api, ReportStatusGenerator statusGenerator,
+			AcknowledgedReports acknowledgedReports)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.acknowledgedReports = acknowledgedReports;
 	}
 
 	@Override
@@ -34,6 +38,7 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(acknowledgedReports, "acknowledgedReports");
 	}
 
 	@Override
@@ -52,6 +57,9 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 			handleMissingResponse(startTask);
 
 		writeStatusLogAndSendMail(startTask, reportLocation, target.getOrganizationIdentifierValue());
+		updateAcknowledgedReport(startTask,
+				variables.getString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_FULL_REFERENCE),
+				target.getOrganizationIdentifierValue());
 
 		variables.updateTask(startTask);
 
@@ -80,6 +88,20 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 				.createReportStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIPT_MISSING));
 	}
 
+	private void updateAcknowledgedReport(Task startTask, String fullReportReference, String hrpIdentifier)
+	{
+		// deltas of following reports are only created against a full report stored by the HRP
+		boolean receiptOk = startTask.getOutput().stream().filter(o -> o.getValue() instanceof Coding)
+				.map(o -> (Coding) o.getValue())
+				.anyMatch(c -> ConstantsReport.CODESYSTEM_REPORT_STATUS.equals(c.getSystem())
+						&& ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIPT_OK.equals(c.getCode()));
+
+		if (!Task.TaskStatus.FAILED.equals(startTask.getStatus()) && receiptOk && fullReportReference != null)
+			acknowledgedReports.acknowledge(hrpIdentifier, fullReportReference);
+		else
+			acknowledgedReports.reset(hrpIdentifier);
+	}
+
 	private void writeStatusLogAndSendMail(Task startTask, String reportLocation, String hrpIdentifier)
 	{
 		startTask.getOutput().stream().filter(o -> o.getValue() instanceof Coding)
@@ -3,18 +3,28 @@ package de.medizininformatik_initiative.process.report.spring.config;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.client.AsyncSearchPoller;
+import de.medizininformatik_initiative.process.report.client.CachingTokenProvider;
+import de.medizininformatik_initiative.process.report.client.CompressionInterceptor;
+import de.medizininformatik_initiative.process.report.client.CountIndex;
+import de.medizininformatik_initiative.process.report.client.FhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.client.NdjsonCountEngine;
+import de.medizininformatik_initiative.process.report.client.QueryTimings;
+import de.medizininformatik_initiative.process.report.client.ResponseSizeGuard;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
 import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
 import de.medizininformatik_initiative.processes.common.fhir.client.token.OAuth2TokenClient;
-import de.medizininformatik_initiative.processes.common.fhir.client.token.OAuth2TokenProvider;
 import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
-import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenProvider;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.documentation.ProcessDocumentation;
 
@@ -32,6 +42,85 @@ public class FhirClientConfig
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.base.url:#{null}}")
 	private String fhirStoreBaseUrl;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Comma separated list of base addresses of equivalent FHIR servers (e.g. read replicas) to execute report search requests against instead of the FHIR server configured as base url, requests are distributed by least outstanding requests", recommendation = "Configure to keep report search requests away from the primary FHIR server, all other FHIR server settings apply to every replica", example = "http://replica1.foo.bar/fhir,http://replica2.foo.bar/fhir")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.replica.base.urls:#{null}}")
+	private String fhirStoreReplicaBaseUrls;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To send a hedged duplicate of a search request to a second replica if the request takes longer than its historical 95th percentile set to `true`, the slower request is aborted once the other one succeeded, only applies if more than one replica is configured")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.replica.hedging:true}")
+	private boolean fhirStoreReplicaHedging;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Minimum time in milliseconds a search request has to be outstanding before a hedged request is sent to a second replica", recommendation = "Change default value only if fast requests are hedged too often")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.replica.hedging.delay.min:1000}")
+	private long fhirStoreReplicaHedgingMinDelay;
+
+	// documented in ReportConfig, limits the threads sending hedged requests
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.query.parallelism:1}")
+	private int queryParallelism;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Comma separated list of base addresses of FHIR servers each holding a disjoint part of the DIC data, every report search request is executed against all of them and the resulting counts are summed, replaces the FHIR server configured as base url and its replicas for report search requests", recommendation = "Configure only if patients are partitioned across several FHIR servers without overlap, all other FHIR server settings apply to every shard", example = "http://site1.foo.bar/fhir,http://site2.foo.bar/fhir")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.shard.base.urls:#{null}}")
+	private String fhirStoreShardBaseUrls;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum decoded size in bytes of a single response from the FHIR server to a report search request or the metadata request, larger responses are aborted and reported as error, compressed responses are limited by their decompressed size, `0` disables the limit", recommendation = "Change default value only if the CapabilityStatement of the FHIR server exceeds the limit")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.response.size.max:10485760}")
+	private long fhirStoreResponseMaxBytes;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum number of entries in a response from the FHIR server to a report count request, responses with more entries are reported as error, `-1` disables the check", recommendation = "Change default value only if the FHIR server returns entries despite count-only requests and the counts should be used anyway")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.response.entries.max:100}")
+	private int fhirStoreResponseMaxEntries;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Interval in milliseconds to poll the status of asynchronous report search requests, used if the FHIR server does not send a Retry-After header", recommendation = "Change default value only if asynchronous requests are polled too often or too rarely")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.async.poll.interval:10000}")
+	private long fhirStoreAsyncPollInterval;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum time in milliseconds to wait for the completion of an asynchronous report search request before it is reported as error")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.async.wait.max:21600000}")
+	private long fhirStoreAsyncMaxWait;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Number of threads polling the status of all outstanding asynchronous report search requests")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.async.poll.threads:2}")
+	private int fhirStoreAsyncPollThreads;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Directory with NDJSON files of a bulk data export (e.g. Observation.ndjson or Observation-1.ndjson.gz) to count report search requests in one pass per resource type instead of executing them against the FHIR server, requests that can not be evaluated locally and resource types without file are executed against the FHIR server", recommendation = "Configure only if every count request triggers a full scan on the FHIR server and the export is refreshed before each report", example = "/opt/bpe/data/export")
+	@Value("${de.medizininformatik.initiative.report.dic.ndjson.directory:#{null}}")
+	private String ndjsonDirectory;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum age in milliseconds of the NDJSON files of a resource type for the files to be counted, the oldest file of a resource type determines the age, report search requests of resource types with older files are executed against the FHIR server", recommendation = "Set slightly above the interval in which the export is refreshed")
+	@Value("${de.medizininformatik.initiative.report.dic.ndjson.age.max:86400000}")
+	private long ndjsonMaxAge;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "File to persist a local count index of the resources queried by report search requests (resource type, profile, code system and year), the index keeps resource counts per distinct combination of these values and is updated by polling the system history of the FHIR server (or its shards, or its first replica), the previous versions of updated and deleted resources are read from their instance history, the index answers report search requests while fresh, requests that can not be evaluated locally are executed against the FHIR server, the index is disabled if not set", recommendation = "Configure only if the FHIR server supports system level `_history` with `_since` as well as instance level `_history` and report search requests put a high load on the FHIR server", example = "/opt/bpe/data/report-count-index.tsv")
+	@Value("${de.medizininformatik.initiative.report.dic.count.index.file:#{null}}")
+	private String countIndexFile;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Interval in milliseconds to poll the system history of the FHIR server for changes to update the count index")
+	@Value("${de.medizininformatik.initiative.report.dic.count.index.poll.interval:3600000}")
+	private long countIndexPollInterval;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum time in milliseconds since the last complete update of the count index for the index to answer report search requests, older indexes are ignored and the requests are executed against the FHIR server", recommendation = "Set to a multiple of the poll interval to tolerate single failed polls")
+	@Value("${de.medizininformatik.initiative.report.dic.count.index.age.max:10800000}")
+	private long countIndexMaxAge;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "File to persist the execution times of report search requests between BPE restarts, execution times are only kept in memory if not set", example = "/opt/bpe/data/report-query-timings.tsv")
+	@Value("${de.medizininformatik.initiative.report.dic.query.timings.file:#{null}}")
+	private String queryTimingsFile;
+
 	@ProcessDocumentation(processNames = {
 			"medizininformatik-initiativede_reportSend" }, description = "PEM encoded file with one or more trusted root certificate to validate the FHIR server certificate when connecting via https", recommendation = "Use docker secret file to configure", example = "/run/secrets/hospital_ca.pem")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.trust.certificates:#{null}}")
@@ -127,6 +216,16 @@ public class FhirClientConfig
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.timeout.socket:60000}")
 	private int fhirStoreOAuth2SocketTimeout;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time in milliseconds before the expiry of an access token at which a new token is requested from the oidc provider in the background, tokens expiring within this time (at least 30 seconds) are not used for requests, tokens not used during their lifetime are not refreshed", recommendation = "Change default value only if tokens expire while requests are executed")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.refresh.before.expiry:60000}")
+	private long fhirStoreOAuth2RefreshBeforeExpiry;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Lifetime in milliseconds assumed for access tokens without a readable expiry claim", recommendation = "Set to the token lifetime configured at the oidc provider if opaque tokens are used")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.token.lifetime.default:300000}")
+	private long fhirStoreOAuth2DefaultTokenLifetime;
+
 	@ProcessDocumentation(processNames = {
 			"medizininformatik-initiativede_reportSend" }, description = "PEM encoded file with one or more trusted root certificate to validate the oidc provider server certificate when connecting via https", recommendation = "Use docker secret file to configure", example = "/run/secrets/hospital_ca.pem")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.trust.certificates:#{null}}")
@@ -155,7 +254,89 @@ public class FhirClientConfig
 	@Value("${dev.dsf.bpe.fhir.server.organization.identifier.value}")
 	private String localIdentifierValue;
 
+	@Bean
 	public FhirClientFactory fhirClientFactory()
+	{
+		return createFhirClientFactory(fhirStoreBaseUrl);
+	}
+
+	@Bean
+	public FhirStoreSearchClient fhirStoreSearchClient()
+	{
+		List<String> replicaBaseUrls = splitUrls(fhirStoreReplicaBaseUrls);
+		List<FhirClientFactory> fhirClientFactories = replicaBaseUrls.isEmpty() ? List.of(fhirClientFactory())
+				: replicaBaseUrls.stream().map(this::createFhirClientFactory).toList();
+
+		return new FhirStoreSearchClient(fhirClientFactories, queryTimings(), compressionInterceptor(),
+				responseSizeGuard(), asyncSearchPoller(), fhirStoreReplicaHedging, fhirStoreReplicaHedgingMinDelay,
+				queryParallelism);
+	}
+
+	@Bean
+	public ShardedFhirStoreSearchClient shardedFhirStoreSearchClient()
+	{
+		List<String> shardBaseUrls = splitUrls(fhirStoreShardBaseUrls);
+		if (shardBaseUrls.isEmpty())
+			return new ShardedFhirStoreSearchClient(List.of(fhirStoreSearchClient()), false);
+
+		List<FhirStoreSearchClient> shards = shardBaseUrls.stream()
+				.map(u -> new FhirStoreSearchClient(List.of(createFhirClientFactory(u)), queryTimings(),
+						compressionInterceptor(), responseSizeGuard(), asyncSearchPoller(), false,
+						fhirStoreReplicaHedgingMinDelay, queryParallelism))
+				.toList();
+
+		return new ShardedFhirStoreSearchClient(shards, true);
+	}
+
+	@Bean
+	public CompressionInterceptor compressionInterceptor()
+	{
+		return new CompressionInterceptor();
+	}
+
+	@Bean
+	public ResponseSizeGuard responseSizeGuard()
+	{
+		return new ResponseSizeGuard(fhirStoreResponseMaxBytes, fhirStoreResponseMaxEntries);
+	}
+
+	@Bean
+	public AsyncSearchPoller asyncSearchPoller()
+	{
+		return new AsyncSearchPoller(queryTimings(), fhirStoreAsyncPollThreads, fhirStoreAsyncPollInterval,
+				fhirStoreAsyncMaxWait);
+	}
+
+	@Bean
+	public NdjsonCountEngine ndjsonCountEngine()
+	{
+		return new NdjsonCountEngine(fhirContext, ndjsonDirectory == null ? null : Paths.get(ndjsonDirectory),
+				ndjsonMaxAge);
+	}
+
+	@Bean
+	public CountIndex countIndex()
+	{
+		// separate clients without the response size limits of report search requests
+		List<String> shardBaseUrls = splitUrls(fhirStoreShardBaseUrls);
+		List<String> replicaBaseUrls = splitUrls(fhirStoreReplicaBaseUrls);
+		List<String> sourceBaseUrls = !shardBaseUrls.isEmpty() ? shardBaseUrls
+				: !replicaBaseUrls.isEmpty() ? List.of(replicaBaseUrls.get(0)) : List.of(fhirStoreBaseUrl);
+
+		List<FhirClientFactory> sources = countIndexFile == null ? List.of()
+				: sourceBaseUrls.stream().map(this::createFhirClientFactory).toList();
+
+		return new CountIndex(fhirContext, sources, compressionInterceptor(),
+				countIndexFile == null ? null : Paths.get(countIndexFile), countIndexPollInterval, countIndexMaxAge);
+	}
+
+	@Bean
+	public QueryTimings queryTimings()
+	{
+		return new QueryTimings(queryTimingsFile == null ? null : Paths.get(queryTimingsFile));
+	}
+
+	private FhirClientFactory createFhirClientFactory(String baseUrl)
 	{
 		Path trustStorePath = checkExists(fhirStoreTrustStore);
 		Path certificatePath = checkExists(fhirStoreCertificate);
@@ -164,7 +345,7 @@ public class FhirClientConfig
 		String proxyUrl = fhirStoreProxyUrl, proxyUsername = fhirStoreProxyUsername,
 				proxyPassword = fhirStoreProxyPassword;
 		if (proxyUrl == null && api.getProxyConfig().isEnabled()
-				&& !api.getProxyConfig().isNoProxyUrl(fhirStoreBaseUrl))
+				&& !api.getProxyConfig().isNoProxyUrl(baseUrl))
 		{
 			proxyUrl = api.getProxyConfig().getUrl();
 			proxyUsername = api.getProxyConfig().getUsername();
@@ -173,14 +354,16 @@ public class FhirClientConfig
 		}
 
 		return new FhirClientFactory(trustStorePath, certificatePath, privateKeyPath, fhirStorePrivateKeyPassword,
-				fhirStoreConnectTimeout, fhirStoreSocketTimeout, fhirStoreConnectionRequestTimeout, fhirStoreBaseUrl,
+				fhirStoreConnectTimeout, fhirStoreSocketTimeout, fhirStoreConnectionRequestTimeout, baseUrl,
 				fhirStoreUsername, fhirStorePassword, fhirStoreBearerToken, tokenProvider(), proxyUrl, proxyUsername,
 				proxyPassword, fhirStoreHapiClientVerbose, fhirContext, localIdentifierValue, dataLogger());
 	}
 
-	public TokenProvider tokenProvider()
+	@Bean
+	public CachingTokenProvider tokenProvider()
 	{
-		return new OAuth2TokenProvider(tokenClient());
+		return new CachingTokenProvider(tokenClient(), fhirStoreOAuth2RefreshBeforeExpiry,
+				fhirStoreOAuth2DefaultTokenLifetime);
 	}
 
 	public TokenClient tokenClient()
@@ -208,6 +391,14 @@ public class FhirClientConfig
 		return new DataLogger(fhirDataLoggingEnabled, fhirContext);
 	}
 
+	private List<String> splitUrls(String urls)
+	{
+		if (urls == null || urls.isBlank())
+			return List.of();
+
+		return Arrays.stream(urls.split(",")).map(String::trim).filter(u -> !u.isEmpty()).toList();
+	}
+
 	private Path checkExists(String file)
 	{
 		if (file == null)
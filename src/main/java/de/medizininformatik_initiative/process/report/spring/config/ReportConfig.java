@@ -1,5 +1,9 @@
 package de.medizininformatik_initiative.process.report.spring.config;
 
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -9,19 +13,34 @@ import org.springframework.context.annotation.Scope;
 
 import de.medizininformatik_initiative.process.report.ReportProcessPluginDefinition;
 import de.medizininformatik_initiative.process.report.ReportProcessPluginDeploymentStateListener;
+import de.medizininformatik_initiative.process.report.message.RestartReportAutostart;
 import de.medizininformatik_initiative.process.report.message.SendReceipt;
 import de.medizininformatik_initiative.process.report.message.SendReport;
 import de.medizininformatik_initiative.process.report.message.StartSendReport;
+import de.medizininformatik_initiative.process.report.service.CheckAutostartRollover;
+import de.medizininformatik_initiative.process.report.service.CheckDataChanges;
+import de.medizininformatik_initiative.process.report.service.CheckExecutionWindow;
 import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
+import de.medizininformatik_initiative.process.report.service.CreateQueryPlan;
 import de.medizininformatik_initiative.process.report.service.CreateReport;
 import de.medizininformatik_initiative.process.report.service.DownloadReport;
 import de.medizininformatik_initiative.process.report.service.DownloadSearchBundle;
 import de.medizininformatik_initiative.process.report.service.HandleError;
 import de.medizininformatik_initiative.process.report.service.InsertReport;
+import de.medizininformatik_initiative.process.report.service.ReportRequestExecutor;
+import de.medizininformatik_initiative.process.report.service.SearchBundleWatcher;
 import de.medizininformatik_initiative.process.report.service.SelectTargetDic;
 import de.medizininformatik_initiative.process.report.service.SelectTargetHrp;
 import de.medizininformatik_initiative.process.report.service.SetTimer;
 import de.medizininformatik_initiative.process.report.service.StoreReceipt;
+import de.medizininformatik_initiative.process.report.util.AcknowledgedReports;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import de.medizininformatik_initiative.process.report.util.CapabilityCache;
+import de.medizininformatik_initiative.process.report.util.ExecutionWindows;
+import de.medizininformatik_initiative.process.report.util.IndexAdvisor;
+import de.medizininformatik_initiative.process.report.util.PrecomputedEntries;
+import de.medizininformatik_initiative.process.report.util.ReportBundleStore;
+import de.medizininformatik_initiative.process.report.util.ReportPartitions;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.ProcessPluginDeploymentStateListener;
@@ -41,6 +60,126 @@ public class ReportConfig
 	@Value("${de.medizininformatik.initiative.report.dic.hrp.identifier:#{null}}")
 	private String hrpIdentifier;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To pre-initialize FHIR model classes, parsers, tokens and connections to the FHIR server, the local DSF FHIR server and the HRP after deployment set to `true`", recommendation = "Enable to avoid the latency of the first report after a BPE restart")
+	@Value("${de.medizininformatik.initiative.report.dic.warmup:false}")
+	private boolean warmUpEnabled;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Number of report search requests executed in parallel against the FHIR server", recommendation = "Increase only if the FHIR server can handle concurrent search requests")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.query.parallelism:1}")
+	private int queryParallelism;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Comma separated list of resource types or search request prefixes for which the FHIR server is asked for an estimated total (`_total=estimate`) instead of an exact count, estimated totals are marked as approximate in the report, exact counts are used if the FHIR server does not support estimates", recommendation = "Configure only for resource types with very large numbers of resources", example = "Observation,Encounter?type")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.query.total.estimate:#{null}}")
+	private String queryTotalEstimate;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Comma separated list of resource types or search request prefixes executed as asynchronous requests (`Prefer: respond-async`), the status of asynchronous requests is polled while the remaining requests are executed", recommendation = "Configure for long running requests that exceed the socket timeout, requires a FHIR server supporting the asynchronous request pattern", example = "Observation,Condition?code")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.query.async:#{null}}")
+	private String queryAsync;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Median execution time in milliseconds of previous executions above which a report search request is executed as asynchronous request, `0` disables the classification by execution time", recommendation = "Set below the socket timeout of the FHIR server connection if the FHIR server supports the asynchronous request pattern")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.query.async.threshold:0}")
+	private long queryAsyncThreshold;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum age in milliseconds of the previous report to be sent again instead of executing the search Bundle, the previous report is only reused if the search Bundle and the FHIR server software are unchanged and the history of no queried resource type contains changes since the previous report, `0` always executes the search Bundle", recommendation = "Configure if the FHIR server supports the resource type history with `_since` or `_lastUpdated` searches and the data does not change during longer periods", example = "2592000000")
+	@Value("${de.medizininformatik.initiative.report.dic.report.reuse.age.max:0}")
+	private long reportReuseMaxAge;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To send only the entries changed since the last report acknowledged by the HRP set to `true`, the HRP merges the changed entries onto its stored copy of the acknowledged report, the first report after a BPE restart or a failed transmission is sent in full", recommendation = "Enable to reduce the size of reports that change only partially between transmissions")
+	@Value("${de.medizininformatik.initiative.report.dic.report.delta:false}")
+	private boolean reportDelta;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To send the projected CapabilityStatement of the FHIR server without search parameters if it is unchanged since the last report acknowledged by the HRP set to `true`, the HRP completes the CapabilityStatement from its stored copy of the acknowledged report, requires all receiving HRPs to support compact reports", recommendation = "Enable only if the HRP runs a plugin version that completes compact reports")
+	@Value("${de.medizininformatik.initiative.report.dic.report.compact:false}")
+	private boolean reportCompact;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Semicolon separated partitions of comma separated resource types, only the search requests of the partition with the oldest results in the previous report are executed, the entries of all other partitions are taken from the previous report with their original search time, requests of resource types not contained in a partition are executed for every report", recommendation = "Configure to spread expensive search requests over several report runs, e.g. with a daily timer interval", example = "Observation; MedicationAdministration,MedicationStatement; Condition,Procedure")
+	@Value("${de.medizininformatik.initiative.report.dic.report.partitions:#{null}}")
+	private String reportPartitions;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Interval in milliseconds in which the HRP is polled for a new version of the search Bundle, new and valid versions are validated and their new search requests executed in advance within the next execution window configured for the report autostart, `0` disables polling", recommendation = "Configure to move the execution of new search requests away from the scheduled report", example = "3600000")
+	@Value("${de.medizininformatik.initiative.report.dic.search.bundle.poll.interval:0}")
+	private long searchBundlePollInterval;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum age in milliseconds of search results executed in advance to be used in a report")
+	@Value("${de.medizininformatik.initiative.report.dic.search.bundle.precomputed.age.max:604800000}")
+	private long precomputedMaxAge;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "File the query plan of report runs started as dry run is written to, the query plan is always logged and added as output to the start Task", recommendation = "Configure to review query plans outside of the DSF FHIR server", example = "/opt/bpe/report/query-plan.tsv")
+	@Value("${de.medizininformatik.initiative.report.dic.query.plan.file:#{null}}")
+	private String queryPlanFile;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To correlate the median execution time of report search requests with the search parameters used and log search parameters not supported by the FHIR server or slow and growing with the total count together with suggested indexes set to `true`, requires recorded query timings", recommendation = "Enable temporarily to tune the indexes of the FHIR server for the report search requests")
+	@Value("${de.medizininformatik.initiative.report.dic.index.advisor:false}")
+	private boolean indexAdvisorEnabled;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Median execution time in milliseconds above which search parameters with execution times growing with the total count are reported as missing an index")
+	@Value("${de.medizininformatik.initiative.report.dic.index.advisor.slow.threshold:1000}")
+	private long indexAdvisorSlowThreshold;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "File the search parameter advice is written to in addition to the log", example = "/opt/bpe/report/index-advice.tsv")
+	@Value("${de.medizininformatik.initiative.report.dic.index.advisor.file:#{null}}")
+	private String indexAdvisorFile;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum size in bytes of the gzip compressed report to be embedded in the Task sent to the HRP in addition to the report reference, the HRP uses the embedded copy instead of downloading the report from the DIC, `0` only sends the report reference", recommendation = "Configure to avoid the download of small reports by the HRP, the maximum size of Task resources accepted by the DSF FHIR server of the HRP must not be exceeded", example = "1048576")
+	@Value("${de.medizininformatik.initiative.report.dic.report.inline.size.max:0}")
+	private int reportInlineMaxSize;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportReceive" }, description = "Maximum size in bytes of a decompressed report embedded in a received Task, reports exceeding the limit are downloaded from the DIC instead", recommendation = "Change default value only if reports of DICs exceed the limit")
+	@Value("${de.medizininformatik.initiative.report.hrp.report.inline.decoded.size.max:10485760}")
+	private long reportInlineDecodedMaxSize;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "To store only the source reference and a content hash of search and report Bundles in process variables instead of the Bundles set to `true`, the Bundles are kept in an in-memory cache and read again from their source if no longer cached", recommendation = "Enable to avoid writing large Bundles to the process engine database")
+	@Value("${de.medizininformatik.initiative.report.bundle.variables.reference:false}")
+	private boolean bundleVariablesReference;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Maximum number of Bundles kept in memory if only references of Bundles are stored in process variables", recommendation = "Increase if many reports are sent or received in parallel")
+	@Value("${de.medizininformatik.initiative.report.bundle.variables.cache.size:16}")
+	private int bundleVariablesCacheSize;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportAutostart" }, description = "Maximum number of timer cycles of a report autostart instance, the instance is then ended and a new instance with the same timer interval and HRP is started, `0` keeps a single instance running", recommendation = "Configure if the engine history of the long-running report autostart instance should be removed by the history cleanup, e.g. `52` for a weekly timer interval")
+	@Value("${de.medizininformatik.initiative.report.dic.autostart.cycles.max:0}")
+	private int autostartMaxCycles;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportAutostart" }, description = "Window in milliseconds after the configured first execution time in which the first execution of the report autostart is moved by an offset derived from the local organization identifier, the offset is stable across restarts, `0` disables the offset", recommendation = "Configure to avoid that all organizations with the same first execution time send their reports at once", example = "7200000")
+	@Value("${de.medizininformatik.initiative.report.dic.autostart.jitter.window:0}")
+	private long autostartJitterWindow;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportAutostart" }, description = "Semicolon separated time windows in which the report autostart may start the report send process, days of week are optional, windows ending before they start end on the following day, runs outside of the windows are deferred to the start of the next window", recommendation = "Configure to create reports only outside of clinical peak hours", example = "Mon-Fri 22:00-06:00; Sat,Sun 00:00-24:00")
+	@Value("${de.medizininformatik.initiative.report.dic.autostart.windows:#{null}}")
+	private String autostartWindows;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportAutostart" }, description = "Maximum latency in milliseconds of a metadata request to the FHIR server before the report autostart starts the report send process, runs are deferred if the FHIR server responds slower or not at all, `0` disables the check", recommendation = "Configure if report creation should not compete with clinical load on the FHIR server", example = "2000")
+	@Value("${de.medizininformatik.initiative.report.dic.autostart.load.latency.max:0}")
+	private long autostartLoadLatencyMax;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportAutostart" }, description = "Delay in milliseconds after which the FHIR server latency is probed again if a report autostart run was deferred because of load")
+	@Value("${de.medizininformatik.initiative.report.dic.autostart.load.deferral:1800000}")
+	private long autostartLoadDeferral;
+
 	// all Processes
 
 	@Bean
@@ -50,11 +189,68 @@ public class ReportConfig
 		return new ReportStatusGenerator();
 	}
 
+	@Bean
+	public ReportBundleStore reportBundleStore()
+	{
+		// search times of stored reports are only read by report reuse and report partitions
+		return new ReportBundleStore(api.getFhirContext(),
+				reportReuseMaxAge > 0 || !ReportPartitions.parse(reportPartitions).isEmpty());
+	}
+
+	@Bean
+	public BundleVariables bundleVariables()
+	{
+		return new BundleVariables(api, bundleVariablesReference, bundleVariablesCacheSize);
+	}
+
+	@Bean
+	public CapabilityCache capabilityCache()
+	{
+		return new CapabilityCache();
+	}
+
+	@Bean
+	public AcknowledgedReports acknowledgedReports()
+	{
+		return new AcknowledgedReports();
+	}
+
+	@Bean
+	public PrecomputedEntries precomputedEntries()
+	{
+		return new PrecomputedEntries(precomputedMaxAge);
+	}
+
+	@Bean
+	public IndexAdvisor indexAdvisor()
+	{
+		return new IndexAdvisor(fhirClientConfig.queryTimings(), indexAdvisorEnabled, indexAdvisorSlowThreshold,
+				indexAdvisorFile == null ? null : Paths.get(indexAdvisorFile));
+	}
+
+	@Bean
+	public ReportRequestExecutor reportRequestExecutor()
+	{
+		return new ReportRequestExecutor(api.getFhirContext(), fhirClientConfig.shardedFhirStoreSearchClient(),
+				fhirClientConfig.countIndex(), fhirClientConfig.ndjsonCountEngine(), fhirClientConfig.queryTimings(),
+				queryParallelism, splitList(queryTotalEstimate), splitList(queryAsync), queryAsyncThreshold);
+	}
+
+	@Bean
+	public SearchBundleWatcher searchBundleWatcher()
+	{
+		String processVersion = new ReportProcessPluginDefinition().getResourceVersion();
+		return new SearchBundleWatcher(api, reportRequestExecutor(), precomputedEntries(),
+				ExecutionWindows.parse(autostartWindows), hrpIdentifier, processVersion, searchBundlePollInterval);
+	}
+
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public ProcessPluginDeploymentStateListener reportProcessPluginDeploymentStateListener()
 	{
-		return new ReportProcessPluginDeploymentStateListener(fhirClientConfig.fhirClientFactory());
+		String resourceVersion = new ReportProcessPluginDefinition().getResourceVersion();
+		return new ReportProcessPluginDeploymentStateListener(api, fhirClientConfig.shardedFhirStoreSearchClient(),
+				resourceVersion, hrpIdentifier, warmUpEnabled);
 	}
 
 	// reportAutostart Process
@@ -63,7 +259,7 @@ public class ReportConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public SetTimer setTimer()
 	{
-		return new SetTimer(api);
+		return new SetTimer(api, autostartJitterWindow);
 	}
 
 	@Bean
@@ -73,6 +269,28 @@ public class ReportConfig
 		return new StartSendReport(api);
 	}
 
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public CheckAutostartRollover checkAutostartRollover()
+	{
+		return new CheckAutostartRollover(api, autostartMaxCycles);
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public CheckExecutionWindow checkExecutionWindow()
+	{
+		return new CheckExecutionWindow(api, fhirClientConfig.shardedFhirStoreSearchClient(),
+				ExecutionWindows.parse(autostartWindows), autostartLoadLatencyMax, autostartLoadDeferral);
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public RestartReportAutostart restartReportAutostart()
+	{
+		return new RestartReportAutostart(api);
+	}
+
 	// reportSend Process
 
 	@Bean
@@ -87,14 +305,32 @@ public class ReportConfig
 	public DownloadSearchBundle downloadSearchBundle()
 	{
 		String processVersion = new ReportProcessPluginDefinition().getResourceVersion();
-		return new DownloadSearchBundle(api, reportStatusGenerator(), fhirClientConfig.dataLogger(), processVersion);
+		return new DownloadSearchBundle(api, reportStatusGenerator(), fhirClientConfig.dataLogger(), bundleVariables(),
+				processVersion);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public CheckSearchBundle checkSearchBundle()
 	{
-		return new CheckSearchBundle(api);
+		return new CheckSearchBundle(api, bundleVariables());
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public CreateQueryPlan createQueryPlan()
+	{
+		return new CreateQueryPlan(api, fhirClientConfig.shardedFhirStoreSearchClient(),
+				fhirClientConfig.queryTimings(), bundleVariables(), queryParallelism,
+				queryPlanFile == null ? null : Paths.get(queryPlanFile));
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public CheckDataChanges checkDataChanges()
+	{
+		return new CheckDataChanges(api, fhirClientConfig.shardedFhirStoreSearchClient(), bundleVariables(),
+				reportReuseMaxAge);
 	}
 
 	@Bean
@@ -102,22 +338,24 @@ public class ReportConfig
 	public CreateReport createReport()
 	{
 		String resourceVersion = new ReportProcessPluginDefinition().getResourceVersion();
-		return new CreateReport(api, resourceVersion, fhirClientConfig.fhirClientFactory(),
-				fhirClientConfig.dataLogger());
+		return new CreateReport(api, resourceVersion, fhirClientConfig.shardedFhirStoreSearchClient(),
+				reportRequestExecutor(), reportBundleStore(), bundleVariables(), acknowledgedReports(),
+				ReportPartitions.parse(reportPartitions), precomputedEntries(), indexAdvisor(),
+				fhirClientConfig.dataLogger(), reportDelta, reportCompact);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public SendReport sendReport()
 	{
-		return new SendReport(api, reportStatusGenerator());
+		return new SendReport(api, reportStatusGenerator(), reportInlineMaxSize);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public StoreReceipt storeReceipt()
 	{
-		return new StoreReceipt(api, reportStatusGenerator());
+		return new StoreReceipt(api, reportStatusGenerator(), acknowledgedReports());
 	}
 
 	// reportReceive Process
@@ -126,14 +364,15 @@ public class ReportConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public DownloadReport downloadReport()
 	{
-		return new DownloadReport(api, reportStatusGenerator());
+		return new DownloadReport(api, reportStatusGenerator(), bundleVariables(), reportInlineDecodedMaxSize);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public InsertReport insertReport()
 	{
-		return new InsertReport(api, reportStatusGenerator());
+		return new InsertReport(api, reportStatusGenerator(), reportBundleStore(), capabilityCache(),
+				bundleVariables());
 	}
 
 	@Bean
@@ -156,4 +395,12 @@ public class ReportConfig
 	{
 		return new SendReceipt(api, reportStatusGenerator());
 	}
+
+	private List<String> splitList(String values)
+	{
+		if (values == null || values.isBlank())
+			return List.of();
+
+		return Arrays.stream(values.split(",")).map(String::trim).filter(v -> !v.isEmpty()).toList();
+	}
 }
@@ -0,0 +1,26 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class AcknowledgedReports
+{
+	// versioned reference of the last full report acknowledged with receipt-ok by HRP identifier
+	private final Map<String, String> references = new ConcurrentHashMap<>();
+
+	public Optional<String> get(String hrpIdentifier)
+	{
+		return Optional.ofNullable(references.get(hrpIdentifier));
+	}
+
+	public void acknowledge(String hrpIdentifier, String reference)
+	{
+		references.put(hrpIdentifier, reference);
+	}
+
+	public void reset(String hrpIdentifier)
+	{
+		references.remove(hrpIdentifier);
+	}
+}
@@ -0,0 +1,113 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Variables;
+import dev.dsf.fhir.client.BasicFhirWebserviceClient;
+
+public class BundleVariables implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(BundleVariables.class);
+
+	private static final String SUFFIX_SOURCE = "Source";
+	private static final String SUFFIX_HASH = "Hash";
+
+	private final ProcessPluginApi api;
+	private final boolean enabled;
+	private final int cacheSize;
+
+	// least recently used Bundles by content hash
+	private final Map<String, Bundle> cache;
+
+	public BundleVariables(ProcessPluginApi api, boolean enabled, int cacheSize)
+	{
+		this.api = api;
+		this.enabled = enabled;
+		this.cacheSize = cacheSize;
+
+		cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Bundle> eldest)
+			{
+				return size() > cacheSize;
+			}
+		});
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(api, "api");
+
+		if (enabled && cacheSize < 1)
+			throw new IllegalArgumentException("cacheSize < 1");
+	}
+
+	// the source is the absolute reference the Bundle is read from if it is no longer cached
+	public void set(Variables variables, String name, Bundle bundle, String source)
+	{
+		if (!enabled || source == null)
+		{
+			variables.setResource(name, bundle);
+			return;
+		}
+
+		String hash = ReportBundleHash.compute(api.getFhirContext(), bundle);
+		cache.put(hash, bundle.copy());
+
+		variables.setString(name + SUFFIX_SOURCE, source);
+		variables.setString(name + SUFFIX_HASH, hash);
+	}
+
+	// returns a copy, callers may modify the Bundle
+	public Bundle get(Variables variables, String name)
+	{
+		String source = variables.getString(name + SUFFIX_SOURCE);
+
+		if (source == null)
+			return variables.getResource(name);
+
+		String hash = variables.getString(name + SUFFIX_HASH);
+		Bundle bundle = cache.get(hash);
+
+		if (bundle == null)
+		{
+			logger.debug("Bundle '{}' not cached, reading from '{}'", name, source);
+
+			bundle = read(source);
+
+			if (!hash.equals(ReportBundleHash.compute(api.getFhirContext(), bundle)))
+				throw new IllegalStateException("Bundle '" + name + "' read from '" + source + "' changed");
+
+			cache.put(hash, bundle);
+		}
+
+		return bundle.copy();
+	}
+
+	private Bundle read(String source)
+	{
+		IdType id = new IdType(source);
+		BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider().getWebserviceClient(id.getBaseUrl())
+				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+
+		if (id.hasVersionIdPart())
+			return client.read(Bundle.class, id.getIdPart(), id.getVersionIdPart());
+		else
+			return client.read(Bundle.class, id.getIdPart());
+	}
+}
@@ -0,0 +1,26 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+
+public class CapabilityCache
+{
+	// last full capabilities received by sending organization identifier
+	private final Map<String, CapabilityStatement> capabilities = new ConcurrentHashMap<>();
+
+	public Optional<CapabilityStatement> get(String organizationIdentifier, String fingerprint)
+	{
+		return Optional.ofNullable(capabilities.get(organizationIdentifier))
+				.filter(c -> CapabilityFingerprint.get(c).map(fingerprint::equals).orElse(false));
+	}
+
+	public void put(String organizationIdentifier, CapabilityStatement capabilityStatement)
+	{
+		if (CapabilityFingerprint.get(capabilityStatement).isPresent()
+				&& !CapabilityFingerprint.isStub(capabilityStatement))
+			capabilities.put(organizationIdentifier, capabilityStatement);
+	}
+}
@@ -0,0 +1,69 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Optional;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.StringType;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+
+public final class CapabilityFingerprint
+{
+	private CapabilityFingerprint()
+	{
+	}
+
+	// SHA-256 of the projected capabilities without id, meta, date and fingerprint
+	public static String compute(FhirContext fhirContext, CapabilityStatement capabilityStatement)
+	{
+		CapabilityStatement canonical = capabilityStatement.copy();
+		canonical.setIdElement(null);
+		canonical.setMeta(null);
+		canonical.setDateElement(null);
+		canonical.removeExtension(ConstantsReport.EXTENSION_REPORT_CAPABILITY_FINGERPRINT_URL);
+
+		return ReportBundleHash.hash(fhirContext, canonical);
+	}
+
+	public static void set(FhirContext fhirContext, CapabilityStatement capabilityStatement)
+	{
+		capabilityStatement.removeExtension(ConstantsReport.EXTENSION_REPORT_CAPABILITY_FINGERPRINT_URL);
+		capabilityStatement.addExtension(ConstantsReport.EXTENSION_REPORT_CAPABILITY_FINGERPRINT_URL,
+				new StringType(compute(fhirContext, capabilityStatement)));
+	}
+
+	public static Optional<String> get(CapabilityStatement capabilityStatement)
+	{
+		Extension extension = capabilityStatement
+				.getExtensionByUrl(ConstantsReport.EXTENSION_REPORT_CAPABILITY_FINGERPRINT_URL);
+
+		return extension != null && extension.getValue() instanceof StringType value && value.hasValue()
+				? Optional.of(value.getValue())
+				: Optional.empty();
+	}
+
+	// capabilities without rest components, resolved by the receiver using the fingerprint
+	public static CapabilityStatement stub(CapabilityStatement capabilityStatement)
+	{
+		CapabilityStatement stub = capabilityStatement.copy();
+		stub.setRest(null);
+
+		return stub;
+	}
+
+	public static boolean isStub(CapabilityStatement capabilityStatement)
+	{
+		return get(capabilityStatement).isPresent() && !capabilityStatement.hasRest();
+	}
+
+	// known capabilities with the date of the stub
+	public static CapabilityStatement expand(CapabilityStatement stub, CapabilityStatement known)
+	{
+		CapabilityStatement expanded = known.copy();
+		expanded.setDateElement(stub.getDateElement().copy());
+
+		return expanded;
+	}
+}
@@ -0,0 +1,134 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.TextStyle;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+public final class ExecutionWindows
+{
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	// start and end in minutes of the day, windows with end before start end on the following day
+	private record Window(Set<DayOfWeek> days, int start, int end)
+	{
+		boolean contains(LocalDateTime dateTime)
+		{
+			int minute = dateTime.getHour() * 60 + dateTime.getMinute();
+			DayOfWeek day = dateTime.getDayOfWeek();
+
+			if (start < end)
+				return days.contains(day) && minute >= start && minute < end;
+			else
+				return (days.contains(day) && minute >= start) || (days.contains(day.minus(1)) && minute < end);
+		}
+	}
+
+	private final List<Window> windows;
+
+	private ExecutionWindows(List<Window> windows)
+	{
+		this.windows = windows;
+	}
+
+	// e.g. "Mon-Fri 22:00-06:00; Sat,Sun 00:00-24:00", windows without days apply to every day
+	public static ExecutionWindows parse(String windows)
+	{
+		if (windows == null || windows.isBlank())
+			return new ExecutionWindows(List.of());
+
+		return new ExecutionWindows(Arrays.stream(windows.split(";")).map(String::trim).filter(w -> !w.isEmpty())
+				.map(ExecutionWindows::parseWindow).toList());
+	}
+
+	private static Window parseWindow(String window)
+	{
+		String[] parts = window.split("\\s+");
+
+		if (parts.length > 2)
+			throw new IllegalArgumentException("Execution window '" + window + "' not valid");
+
+		Set<DayOfWeek> days = parts.length == 2 ? parseDays(parts[0]) : EnumSet.allOf(DayOfWeek.class);
+		String[] times = parts[parts.length - 1].split("-");
+
+		if (times.length != 2)
+			throw new IllegalArgumentException("Execution window '" + window + "' not valid");
+
+		int start = parseMinute(times[0]);
+		int end = parseMinute(times[1]);
+
+		if (start == end || start == MINUTES_PER_DAY)
+			throw new IllegalArgumentException("Execution window '" + window + "' not valid");
+
+		return new Window(days, start, end);
+	}
+
+	private static Set<DayOfWeek> parseDays(String days)
+	{
+		Set<DayOfWeek> result = EnumSet.noneOf(DayOfWeek.class);
+
+		for (String range : days.split(","))
+		{
+			String[] bounds = range.split("-");
+			DayOfWeek first = parseDay(bounds[0]);
+			DayOfWeek last = bounds.length > 1 ? parseDay(bounds[1]) : first;
+
+			for (DayOfWeek day = first; day != last; day = day.plus(1))
+				result.add(day);
+
+			result.add(last);
+		}
+
+		return result;
+	}
+
+	private static DayOfWeek parseDay(String day)
+	{
+		return Arrays.stream(DayOfWeek.values())
+				.filter(d -> d.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).equalsIgnoreCase(day.trim()))
+				.findFirst().orElseThrow(() -> new IllegalArgumentException("Day of week '" + day + "' not valid"));
+	}
+
+	private static int parseMinute(String time)
+	{
+		if ("24:00".equals(time.trim()))
+			return MINUTES_PER_DAY;
+
+		LocalTime localTime = LocalTime.parse(time.trim());
+		return localTime.getHour() * 60 + localTime.getMinute();
+	}
+
+	// without configured windows every time is allowed
+	public boolean contains(LocalDateTime dateTime)
+	{
+		return windows.isEmpty() || windows.stream().anyMatch(w -> w.contains(dateTime));
+	}
+
+	// next start of a window after the given time, empty if no windows are configured
+	public Optional<LocalDateTime> nextStart(LocalDateTime dateTime)
+	{
+		Optional<LocalDateTime> next = Optional.empty();
+
+		for (int d = 0; d <= 7; d++)
+		{
+			LocalDateTime day = dateTime.toLocalDate().plusDays(d).atStartOfDay();
+
+			for (Window window : windows)
+			{
+				LocalDateTime start = day.plusMinutes(window.start());
+
+				if (window.days().contains(day.getDayOfWeek()) && start.isAfter(dateTime)
+						&& (next.isEmpty() || start.isBefore(next.get())))
+					next = Optional.of(start);
+			}
+		}
+
+		return next;
+	}
+}
@@ -0,0 +1,208 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.report.client.QueryTimings;
+import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
+import de.medizininformatik_initiative.process.report.service.ReportRequestExecutor;
+
+public class IndexAdvisor
+{
+	private static final Logger logger = LoggerFactory.getLogger(IndexAdvisor.class);
+
+	private static final Pattern MODIFIERS = Pattern.compile(":.*");
+	private static final String RESPONSE_OK = "200";
+	private static final double LATENCY_PERCENTILE = 0.5;
+	private static final double MIN_CORRELATION = 0.8;
+	private static final int MIN_CORRELATION_SAMPLES = 3;
+
+	private record Sample(long total, long latencyMillis)
+	{
+	}
+
+	private record Finding(String resourceType, String param, List<Sample> samples, long medianLatency,
+			double correlation, boolean supported, boolean unindexed)
+	{
+	}
+
+	private final QueryTimings queryTimings;
+	private final boolean enabled;
+	private final long slowThresholdMillis;
+	private final Path file;
+
+	public IndexAdvisor(QueryTimings queryTimings, boolean enabled, long slowThresholdMillis, Path file)
+	{
+		this.queryTimings = queryTimings;
+		this.enabled = enabled;
+		this.slowThresholdMillis = slowThresholdMillis;
+		this.file = file;
+	}
+
+	// correlates the median latency of the report search requests with the search parameters used, parameters not
+	// supported by the FHIR server or slow with latencies growing with the total are reported
+	public void advise(List<ReportEntry> entries)
+	{
+		if (!enabled)
+			return;
+
+		Optional<Map<String, Set<String>>> supportedParams = entries.stream()
+				.map(ReportEntry::capabilityStatement).filter(c -> c != null && c.hasRest()).findFirst()
+				.map(this::getSupportedParams);
+
+		Map<String, List<Sample>> samples = new TreeMap<>();
+		for (ReportEntry entry : entries)
+		{
+			if (entry.total() == null || !RESPONSE_OK.equals(entry.status()) || !entry.url().contains("?"))
+				continue;
+
+			OptionalLong latency = queryTimings.getPercentile(ReportRequestExecutor.toCountOnlyUrl(entry.url()),
+					LATENCY_PERCENTILE);
+			if (latency.isEmpty())
+				continue;
+
+			String[] parts = entry.url().split("\\?", 2);
+			Arrays.stream(parts[1].split("&")).map(p -> MODIFIERS.matcher(p.split("=", 2)[0]).replaceAll(""))
+					.filter(p -> !p.startsWith("_")).distinct()
+					.forEach(p -> samples.computeIfAbsent(parts[0] + "." + p, k -> new ArrayList<>())
+							.add(new Sample(entry.total(), latency.getAsLong())));
+		}
+
+		if (samples.isEmpty())
+		{
+			logger.debug("No query timings recorded for report search requests, no search parameter advice created");
+			return;
+		}
+
+		List<Finding> findings = samples.entrySet().stream().map(e -> toFinding(e.getKey(), e.getValue(),
+				supportedParams)).sorted(Comparator.comparingLong(Finding::medianLatency).reversed()).toList();
+
+		String advice = toAdvice(findings, supportedParams.isPresent());
+		logger.info("Search parameter advice for report search requests:\n{}", advice);
+		writeFile(advice);
+	}
+
+	private Map<String, Set<String>> getSupportedParams(CapabilityStatement capabilityStatement)
+	{
+		return capabilityStatement.getRest().stream().flatMap(r -> r.getResource().stream())
+				.collect(Collectors.toMap(CapabilityStatement.CapabilityStatementRestResourceComponent::getType,
+						r -> r.getSearchParam().stream()
+								.map(CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent::getName)
+								.collect(Collectors.toSet()),
+						(a, b) -> Stream.concat(a.stream(), b.stream()).collect(Collectors.toSet())));
+	}
+
+	private Finding toFinding(String key, List<Sample> samples, Optional<Map<String, Set<String>>> supportedParams)
+	{
+		String[] parts = key.split("\\.", 2);
+		boolean supported = supportedParams.map(s -> s.getOrDefault(parts[0], Set.of()).contains(parts[1]))
+				.orElse(true);
+
+		long[] latencies = samples.stream().mapToLong(Sample::latencyMillis).sorted().toArray();
+		long medianLatency = latencies[(latencies.length - 1) / 2];
+		double correlation = getCorrelation(samples);
+		boolean unindexed = medianLatency >= slowThresholdMillis && correlation >= MIN_CORRELATION;
+
+		return new Finding(parts[0], parts[1], samples, medianLatency, correlation, supported, unindexed);
+	}
+
+	// pearson correlation of total and latency, 0 if not enough distinct samples
+	private double getCorrelation(List<Sample> samples)
+	{
+		if (samples.size() < MIN_CORRELATION_SAMPLES)
+			return 0;
+
+		double meanTotal = samples.stream().mapToLong(Sample::total).average().orElse(0);
+		double meanLatency = samples.stream().mapToLong(Sample::latencyMillis).average().orElse(0);
+
+		double covariance = 0, varianceTotal = 0, varianceLatency = 0;
+		for (Sample sample : samples)
+		{
+			double total = sample.total() - meanTotal;
+			double latency = sample.latencyMillis() - meanLatency;
+
+			covariance += total * latency;
+			varianceTotal += total * total;
+			varianceLatency += latency * latency;
+		}
+
+		if (varianceTotal == 0 || varianceLatency == 0)
+			return 0;
+
+		return covariance / Math.sqrt(varianceTotal * varianceLatency);
+	}
+
+	private String toAdvice(List<Finding> findings, boolean capabilitiesKnown)
+	{
+		StringBuilder advice = new StringBuilder();
+		advice.append("resource_type\tparam\tqueries\tmedian_ms\tmax_total\tcorrelation\tfinding\n");
+
+		for (Finding finding : findings)
+		{
+			advice.append(finding.resourceType()).append('\t').append(finding.param()).append('\t')
+					.append(finding.samples().size()).append('\t').append(finding.medianLatency()).append('\t')
+					.append(finding.samples().stream().mapToLong(Sample::total).max().orElse(0)).append('\t')
+					.append(String.format(Locale.ROOT, "%.2f", finding.correlation())).append('\t')
+					.append(!finding.supported() ? "unsupported" : finding.unindexed() ? "unindexed" : "ok")
+					.append('\n');
+		}
+
+		if (!capabilitiesKnown)
+			advice.append("No search parameters in CapabilityStatement of FHIR server, support not checked\n");
+
+		findings.stream().filter(f -> !f.supported()).forEach(f -> advice.append("Search parameter '")
+				.append(f.param()).append("' not supported for ").append(f.resourceType())
+				.append(" by FHIR server, report counts may be wrong\n"));
+
+		findings.stream().filter(Finding::unindexed).forEach(f -> advice.append("Add index on ")
+				.append(f.resourceType()).append('.').append(f.param()).append('\n'));
+
+		// count queries combining a slow code and a slow date parameter profit from a composite index
+		findings.stream().filter(Finding::unindexed)
+				.filter(f -> CheckSearchBundle.TOKEN_SEARCH_PARAMS.contains(f.param()))
+				.forEach(token -> findings.stream().filter(Finding::unindexed)
+						.filter(f -> f.resourceType().equals(token.resourceType()))
+						.filter(f -> CheckSearchBundle.DATE_SEARCH_PARAMS.contains(f.param()))
+						.forEach(date -> advice.append("Add composite index on ").append(token.resourceType())
+								.append(".(").append(token.param()).append(", ").append(date.param()).append(")\n")));
+
+		if (findings.stream().allMatch(f -> f.supported() && !f.unindexed()))
+			advice.append("No missing indexes detected\n");
+
+		return advice.toString();
+	}
+
+	private void writeFile(String advice)
+	{
+		if (file == null)
+			return;
+
+		try
+		{
+			Files.writeString(file, advice, StandardCharsets.UTF_8);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not write search parameter advice to '{}' - {}", file, exception.getMessage());
+		}
+	}
+}
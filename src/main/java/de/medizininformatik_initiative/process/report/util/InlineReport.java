@@ -0,0 +1,96 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public final class InlineReport
+{
+	private InlineReport()
+	{
+	}
+
+	// gzip compressed compact JSON encoding of the report
+	public static byte[] encode(FhirContext fhirContext, Bundle report)
+	{
+		String json = fhirContext.newJsonParser().setPrettyPrint(false).encodeResourceToString(report);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out))
+		{
+			gzip.write(json.getBytes(StandardCharsets.UTF_8));
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+
+		return out.toByteArray();
+	}
+
+	// the decompressed report is limited to maxBytes, small payloads may expand to huge reports
+	public static Bundle decode(FhirContext fhirContext, byte[] encoded, long maxBytes)
+	{
+		try (InputStream in = new LimitedInputStream(new GZIPInputStream(new ByteArrayInputStream(encoded)),
+				maxBytes))
+		{
+			return fhirContext.newJsonParser().parseResource(Bundle.class, in);
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	private static final class LimitedInputStream extends FilterInputStream
+	{
+		private final long maxBytes;
+		private long read;
+
+		private LimitedInputStream(InputStream in, long maxBytes)
+		{
+			super(in);
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+
+			if (b >= 0)
+				count(1);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int n = super.read(buffer, offset, length);
+
+			if (n > 0)
+				count(n);
+
+			return n;
+		}
+
+		private void count(long n) throws IOException
+		{
+			read += n;
+
+			if (read > maxBytes)
+				throw new IOException("Decompressed inline report exceeds maximum of " + maxBytes + " bytes");
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PrecomputedEntries
+{
+	private final long maxAgeMillis;
+
+	// report entries of search requests executed before the report was requested, by search url
+	private final Map<String, ReportEntry> entries = new ConcurrentHashMap<>();
+
+	public PrecomputedEntries(long maxAgeMillis)
+	{
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public void put(ReportEntry entry)
+	{
+		if (entry.lastUpdated() != null)
+			entries.put(entry.url(), entry);
+	}
+
+	// entries older than the max age are removed
+	public Optional<ReportEntry> get(String url)
+	{
+		ReportEntry entry = entries.get(url);
+
+		if (entry == null)
+			return Optional.empty();
+
+		if (System.currentTimeMillis() - entry.lastUpdated().getTime() > maxAgeMillis)
+		{
+			entries.remove(url, entry);
+			return Optional.empty();
+		}
+
+		return Optional.of(entry);
+	}
+}
@@ -0,0 +1,91 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CanonicalType;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Meta;
+import org.hl7.fhir.r4.model.Resource;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public final class ReportBundleHash
+{
+	private static final String ALGORITHM = "SHA-256";
+
+	private ReportBundleHash()
+	{
+	}
+
+	// SHA-256 of the report without ids, versions, timestamps and read access tags
+	public static String compute(FhirContext fhirContext, Bundle report)
+	{
+		Bundle canonical = new Bundle();
+		canonical.setMeta(canonicalMeta(report.getMeta()));
+		canonical.setIdentifier(report.getIdentifier());
+		canonical.setType(report.getType());
+		report.getEntry().stream().map(ReportBundleHash::canonicalEntry).forEach(canonical::addEntry);
+
+		return hash(fhirContext, canonical);
+	}
+
+	// search times of the report entries, null for entries without searchset Bundle, not part of the hash
+	public static List<Date> getSearchTimes(Bundle report)
+	{
+		return report.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.map(r -> r instanceof Bundle bundle ? bundle.getMeta().getLastUpdated() : null).toList();
+	}
+
+	// SHA-256 of the compact JSON encoding of the resource
+	public static String hash(FhirContext fhirContext, Resource resource)
+	{
+		String json = fhirContext.newJsonParser().setPrettyPrint(false).encodeResourceToString(resource);
+
+		try
+		{
+			return HexFormat.of()
+					.formatHex(MessageDigest.getInstance(ALGORITHM).digest(json.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new RuntimeException(exception);
+		}
+	}
+
+	// copy of a report entry without ids, versions and timestamps
+	public static Bundle.BundleEntryComponent canonicalEntry(Bundle.BundleEntryComponent entry)
+	{
+		Bundle.BundleEntryComponent canonical = entry.copy();
+
+		if (canonical.getResource() instanceof Bundle bundle)
+		{
+			bundle.setIdElement(null);
+			bundle.setMeta(canonicalMeta(bundle.getMeta()));
+		}
+		else if (canonical.getResource() instanceof CapabilityStatement capabilityStatement)
+		{
+			capabilityStatement.setIdElement(null);
+			capabilityStatement.setMeta(null);
+			capabilityStatement.setDateElement(null);
+		}
+
+		return canonical;
+	}
+
+	private static Meta canonicalMeta(Meta meta)
+	{
+		List<String> profiles = meta.getProfile().stream().map(CanonicalType::getValue).sorted().toList();
+
+		Meta canonical = new Meta();
+		profiles.forEach(canonical::addProfile);
+		meta.getExtension().forEach(e -> canonical.addExtension(e.copy()));
+
+		return canonical.isEmpty() ? null : canonical;
+	}
+}
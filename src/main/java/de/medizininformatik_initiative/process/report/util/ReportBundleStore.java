@@ -0,0 +1,141 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.fhir.client.FhirWebserviceClient;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+
+public class ReportBundleStore implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ReportBundleStore.class);
+
+	private record StoredReport(String id, String version, String hash, List<Date> searchTimes)
+	{
+	}
+
+	private final FhirContext fhirContext;
+	private final boolean searchTimesTracked;
+
+	// stored report Bundles by identifier search value, e.g. system|value
+	private final Map<String, StoredReport> storedReports = new ConcurrentHashMap<>();
+
+	public ReportBundleStore(FhirContext fhirContext, boolean searchTimesTracked)
+	{
+		this.fhirContext = fhirContext;
+		this.searchTimesTracked = searchTimesTracked;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(fhirContext, "fhirContext");
+	}
+
+	// returns the versioned id of the stored report Bundle, unchanged reports are not written again, new search times
+	// only count as change if tracked, as report reuse and partitions depend on the search times of the stored report
+	public IdType store(FhirWebserviceClient client, Bundle report, String identifier)
+	{
+		String hash = ReportBundleHash.compute(fhirContext, report);
+		List<Date> searchTimes = ReportBundleHash.getSearchTimes(report);
+		StoredReport stored = storedReports.get(identifier);
+
+		if (stored == null)
+			stored = readStoredReport(client, identifier).orElse(null);
+
+		if (stored != null && stored.hash().equals(hash)
+				&& (!searchTimesTracked || stored.searchTimes().equals(searchTimes)))
+		{
+			logger.info("Report Bundle with identifier '{}' unchanged, using stored version {}", identifier,
+					stored.version());
+			return new IdType(ResourceType.Bundle.name(), stored.id(), stored.version());
+		}
+
+		IdType id = stored == null ? updateConditionaly(client, report, identifier)
+				: update(client, report, identifier, stored);
+		storedReports.put(identifier, new StoredReport(id.getIdPart(), id.getVersionIdPart(), hash, searchTimes));
+
+		return id;
+	}
+
+	public Optional<Bundle> read(FhirWebserviceClient client, String identifier)
+	{
+		Bundle result = client.searchWithStrictHandling(Bundle.class,
+				Map.of("identifier", Collections.singletonList(identifier)));
+
+		return result.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof Bundle).map(r -> (Bundle) r).findFirst();
+	}
+
+	private Optional<StoredReport> readStoredReport(FhirWebserviceClient client, String identifier)
+	{
+		try
+		{
+			return read(client, identifier).map(r -> new StoredReport(r.getIdElement().getIdPart(),
+					r.getMeta().getVersionId(), ReportBundleHash.compute(fhirContext, r),
+					ReportBundleHash.getSearchTimes(r)));
+		}
+		catch (Exception exception)
+		{
+			logger.debug("Could not read stored report Bundle with identifier '{}' - {}", identifier,
+					exception.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	private IdType update(FhirWebserviceClient client, Bundle report, String identifier, StoredReport stored)
+	{
+		// the version is sent as If-Match header, no identifier search is needed on the server
+		report.setId(stored.id());
+		report.getMeta().setVersionId(stored.version());
+
+		try
+		{
+			// not retried, 404 and 412 are final and other errors are retried by the conditional update
+			return client.withMinimalReturn().update(report);
+		}
+		catch (RuntimeException exception)
+		{
+			int status = exception instanceof WebApplicationException webApplicationException
+					&& webApplicationException.getResponse() != null
+							? webApplicationException.getResponse().getStatus()
+							: 0;
+
+			if (status == Response.Status.NOT_FOUND.getStatusCode()
+					|| status == Response.Status.PRECONDITION_FAILED.getStatusCode())
+				logger.info("Stored report Bundle with identifier '{}' deleted or modified since version {}, using "
+						+ "conditional update", identifier, stored.version());
+			else
+				logger.warn("Could not update stored report Bundle with identifier '{}' version {}, using conditional "
+						+ "update - {}", identifier, stored.version(), exception.getMessage());
+
+			storedReports.remove(identifier);
+			report.setIdElement(null);
+			report.getMeta().setVersionId(null);
+
+			return updateConditionaly(client, report, identifier);
+		}
+	}
+
+	private IdType updateConditionaly(FhirWebserviceClient client, Bundle report, String identifier)
+	{
+		return client.withMinimalReturn()
+				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
+				.updateConditionaly(report, Map.of("identifier", Collections.singletonList(identifier)));
+	}
+}
@@ -0,0 +1,132 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.StringType;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+
+public final class ReportDelta
+{
+	private static final String EXTENSION_REFERENCE = "reference";
+	private static final String EXTENSION_HASH = "hash";
+
+	public record Base(String reference, String hash)
+	{
+	}
+
+	private ReportDelta()
+	{
+	}
+
+	// empty if the entries of the report do not correspond to the entries of the base report
+	public static Optional<Bundle> create(Bundle base, Base baseInfo, Bundle report)
+	{
+		List<String> baseKeys = base.getEntry().stream().map(ReportDelta::getKey).toList();
+		List<String> reportKeys = report.getEntry().stream().map(ReportDelta::getKey).toList();
+
+		if (!baseKeys.equals(reportKeys) || baseKeys.contains(null))
+			return Optional.empty();
+
+		Bundle delta = new Bundle();
+		delta.setMeta(report.getMeta().copy());
+		delta.getMeta().setVersionId(null);
+		delta.setIdentifier(report.getIdentifier().copy());
+		delta.setType(report.getType());
+
+		Extension extension = delta.getMeta().addExtension().setUrl(ConstantsReport.EXTENSION_REPORT_DELTA_BASE_URL);
+		extension.addExtension(EXTENSION_REFERENCE,
+				new Reference(baseInfo.reference()).setType(ResourceType.Bundle.name()));
+		extension.addExtension(EXTENSION_HASH, new StringType(baseInfo.hash()));
+
+		Set<String> changedKeys = new HashSet<>();
+		for (int i = 0; i < report.getEntry().size(); i++)
+		{
+			if (!ReportBundleHash.canonicalEntry(report.getEntry().get(i))
+					.equalsDeep(ReportBundleHash.canonicalEntry(base.getEntry().get(i))))
+				changedKeys.add(reportKeys.get(i));
+		}
+
+		// all entries of a changed key are sent, the receiver replaces the entries of a key in order
+		for (int i = 0; i < report.getEntry().size(); i++)
+		{
+			if (changedKeys.contains(reportKeys.get(i)))
+				delta.addEntry(report.getEntry().get(i).copy());
+		}
+
+		return Optional.of(delta);
+	}
+
+	public static Optional<Base> getBase(Bundle report)
+	{
+		Extension extension = report.getMeta().getExtensionByUrl(ConstantsReport.EXTENSION_REPORT_DELTA_BASE_URL);
+
+		if (extension == null)
+			return Optional.empty();
+
+		Extension reference = extension.getExtensionByUrl(EXTENSION_REFERENCE);
+		Extension hash = extension.getExtensionByUrl(EXTENSION_HASH);
+
+		if (reference == null || !(reference.getValue() instanceof Reference referenceValue)
+				|| !referenceValue.hasReference() || hash == null || !(hash.getValue() instanceof StringType hashValue))
+			throw new IllegalArgumentException("Delta report base extension incomplete");
+
+		return Optional.of(new Base(referenceValue.getReference(), hashValue.getValue()));
+	}
+
+	// full report with the entries of the base report replaced by the changed entries of the delta report, entries
+	// with the same key are replaced in order
+	public static Bundle merge(Bundle base, Bundle delta)
+	{
+		Map<String, Deque<Bundle.BundleEntryComponent>> changed = new LinkedHashMap<>();
+		delta.getEntry().forEach(e -> changed.computeIfAbsent(getKey(e), k -> new ArrayDeque<>()).add(e));
+
+		Map<String, Integer> baseCounts = new HashMap<>();
+		base.getEntry().forEach(e -> baseCounts.merge(getKey(e), 1, Integer::sum));
+
+		changed.forEach((key, entries) ->
+		{
+			if (!baseCounts.containsKey(key))
+				throw new IllegalArgumentException("Delta report contains entry '" + key + "' not contained in base "
+						+ "report");
+			if (baseCounts.get(key) != entries.size())
+				throw new IllegalArgumentException("Delta report contains " + entries.size() + " entries '" + key
+						+ "', base report " + baseCounts.get(key));
+		});
+
+		Bundle report = new Bundle();
+		report.setMeta(delta.getMeta().copy());
+		report.getMeta().removeExtension(ConstantsReport.EXTENSION_REPORT_DELTA_BASE_URL);
+		report.setIdentifier(delta.getIdentifier().copy());
+		report.setType(delta.getType());
+
+		for (Bundle.BundleEntryComponent entry : base.getEntry())
+		{
+			Deque<Bundle.BundleEntryComponent> changes = changed.get(getKey(entry));
+			report.addEntry(changes != null ? changes.removeFirst().copy() : entry.copy());
+		}
+
+		return report;
+	}
+
+	private static String getKey(Bundle.BundleEntryComponent entry)
+	{
+		// search results are identified by their search url, the CapabilityStatement by its resource type
+		if (entry.getResource() instanceof Bundle bundle)
+			return bundle.getLink(Bundle.LINK_SELF) == null ? null : bundle.getLink(Bundle.LINK_SELF).getUrl();
+		else
+			return entry.hasResource() ? entry.getResource().fhirType() : null;
+	}
+}
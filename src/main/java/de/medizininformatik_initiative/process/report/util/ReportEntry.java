@@ -0,0 +1,68 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Date;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.OperationOutcome;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+
+// projection of a report search response, the total is null for responses without searchset Bundle
+public record ReportEntry(String url, String status, OperationOutcome outcome, Integer total, boolean approximate,
+		Date lastUpdated, CapabilityStatement capabilityStatement)
+{
+	public static ReportEntry searchset(String url, String status, int total, boolean approximate, Date lastUpdated)
+	{
+		return new ReportEntry(url, status, null, total, approximate, lastUpdated, null);
+	}
+
+	public static ReportEntry capabilityStatement(String url, String status, CapabilityStatement capabilityStatement)
+	{
+		return new ReportEntry(url, status, null, null, false, null, capabilityStatement);
+	}
+
+	public static ReportEntry other(String url, String status)
+	{
+		return new ReportEntry(url, status, null, null, false, null, null);
+	}
+
+	// failed requests are reported as empty searchset with the error status
+	public static ReportEntry error(String url, String status, OperationOutcome outcome)
+	{
+		return new ReportEntry(url, status, outcome, 0, false, new Date(), null);
+	}
+
+	// the same response for an equivalent request url
+	public ReportEntry withUrl(String url)
+	{
+		return new ReportEntry(url, status, outcome, total, approximate, lastUpdated, capabilityStatement);
+	}
+
+	public Bundle.BundleEntryComponent toBundleEntry()
+	{
+		Bundle.BundleEntryComponent entry = new Bundle.BundleEntryComponent();
+
+		if (total != null)
+		{
+			Bundle searchset = new Bundle();
+			searchset.getMeta().setLastUpdated(lastUpdated);
+			searchset.addLink().setRelation("self").setUrl(url);
+			searchset.setType(Bundle.BundleType.SEARCHSET);
+			searchset.setTotal(total);
+
+			if (approximate)
+				searchset.getTotalElement().addExtension(ConstantsReport.EXTENSION_REPORT_COUNT_APPROXIMATE_URL,
+						new BooleanType(true));
+
+			entry.setResource(searchset);
+		}
+		else if (capabilityStatement != null)
+			entry.setResource(capabilityStatement);
+
+		entry.setResponse(new Bundle.BundleEntryResponseComponent().setStatus(status).setOutcome(outcome));
+
+		return entry;
+	}
+}
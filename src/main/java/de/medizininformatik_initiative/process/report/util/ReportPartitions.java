@@ -0,0 +1,91 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public final class ReportPartitions
+{
+	private final List<Set<String>> partitions;
+
+	private ReportPartitions(List<Set<String>> partitions)
+	{
+		this.partitions = partitions;
+	}
+
+	// e.g. "Observation; Condition,Procedure", resource types separated by comma, partitions by semicolon
+	public static ReportPartitions parse(String partitions)
+	{
+		if (partitions == null || partitions.isBlank())
+			return new ReportPartitions(List.of());
+
+		List<Set<String>> parsed = Arrays.stream(partitions.split(";")).map(String::trim).filter(p -> !p.isEmpty())
+				.map(p -> Arrays.stream(p.split(",")).map(String::trim).filter(t -> !t.isEmpty())
+						.collect(Collectors.toSet()))
+				.toList();
+
+		long resourceTypes = parsed.stream().mapToLong(Set::size).sum();
+		if (parsed.stream().flatMap(Set::stream).distinct().count() != resourceTypes)
+			throw new IllegalArgumentException(
+					"Report partitions '" + partitions + "' contain duplicate resource types");
+
+		return new ReportPartitions(parsed);
+	}
+
+	public boolean isEmpty()
+	{
+		return partitions.isEmpty();
+	}
+
+	// index of the partition of the url's resource type, empty if requests of the resource type are executed for
+	// every report
+	public Optional<Integer> getPartition(String url)
+	{
+		String resourceType = url.split("\\?", 2)[0];
+
+		for (int i = 0; i < partitions.size(); i++)
+		{
+			if (partitions.get(i).contains(resourceType))
+				return Optional.of(i);
+		}
+
+		return Optional.empty();
+	}
+
+	// indexes of the partitions with requests missing in the previous report or, if all requests are contained, of
+	// the partition with the oldest search time, urls without partition are not considered
+	public Set<Integer> getExecutedPartitions(List<String> urls, Map<String, ReportEntry> previous)
+	{
+		Map<Integer, List<String>> urlsByPartition = new LinkedHashMap<>();
+		urls.forEach(url -> getPartition(url)
+				.ifPresent(p -> urlsByPartition.computeIfAbsent(p, k -> new ArrayList<>()).add(url)));
+
+		Set<Integer> executed = new HashSet<>();
+		urlsByPartition.forEach((partition, partitionUrls) ->
+		{
+			if (!previous.keySet().containsAll(partitionUrls))
+				executed.add(partition);
+		});
+
+		if (executed.isEmpty())
+			urlsByPartition.entrySet().stream()
+					.min(Comparator.comparing(e -> getOldestSearchTime(e.getValue(), previous)))
+					.ifPresent(e -> executed.add(e.getKey()));
+
+		return executed;
+	}
+
+	private Date getOldestSearchTime(List<String> urls, Map<String, ReportEntry> entries)
+	{
+		return urls.stream().map(entries::get).map(ReportEntry::lastUpdated).map(d -> d == null ? new Date(0) : d)
+				.min(Date::compareTo).orElse(new Date(0));
+	}
+}
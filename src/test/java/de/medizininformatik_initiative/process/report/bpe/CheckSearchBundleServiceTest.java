@@ -22,11 +22,13 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import ca.uhn.fhir.context.FhirContext;
 import de.medizininformatik_initiative.process.report.ConstantsReport;
 import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.constants.CodeSystems;
 import dev.dsf.bpe.v1.service.FhirWebserviceClientProvider;
@@ -72,6 +74,9 @@ public class CheckSearchBundleServiceTest
 	@Mock
 	private RuntimeService runtimeService;
 
+	@Spy
+	private BundleVariables bundleVariables = new BundleVariables(null, false, 0);
+
 	@Captor
 	ArgumentCaptor<Task.TaskOutputComponent> output;
 
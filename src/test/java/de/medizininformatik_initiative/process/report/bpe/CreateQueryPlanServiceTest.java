@@ -0,0 +1,103 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.QueryTimings;
+import de.medizininformatik_initiative.process.report.client.ShardedFhirStoreSearchClient;
+import de.medizininformatik_initiative.process.report.service.CreateQueryPlan;
+import de.medizininformatik_initiative.process.report.util.BundleVariables;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.service.TaskHelper;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateQueryPlanServiceTest
+{
+	private static final String CONDITION = "Condition?code=http://fhir.de/CodeSystem/bfarm/icd-10-gm|&_summary=count";
+	private static final String OBSERVATION = "Observation?_summary=count";
+	private static final String PATIENT = "Patient?_summary=count";
+
+	@Mock
+	private DelegateExecution execution;
+
+	@Mock
+	private ProcessPluginApi api;
+
+	@Mock
+	private Variables variables;
+
+	@Mock
+	private Target target;
+
+	@Mock
+	private Task task;
+
+	@Mock
+	private TaskHelper taskHelper;
+
+	@Mock
+	private ShardedFhirStoreSearchClient fhirStoreSearchClient;
+
+	@Captor
+	private ArgumentCaptor<StringType> plan;
+
+	@Test
+	public void testRecordedTimingsUsed() throws Exception
+	{
+		// timings are recorded for the count-only url as executed, not for the canonical form
+		QueryTimings queryTimings = new QueryTimings(null);
+		for (long duration : new long[] { 100, 200, 300 })
+			queryTimings.record(CONDITION + "&_count=0", duration);
+		for (int i = 0; i < 3; i++)
+			queryTimings.record(OBSERVATION + "&_count=0", 50);
+
+		Bundle searchBundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		for (String url : new String[] { "metadata", OBSERVATION, CONDITION, PATIENT, OBSERVATION })
+			searchBundle.addEntry().getRequest().setMethod(Bundle.HTTPVerb.GET).setUrl(url);
+
+		CapabilityStatement capabilityStatement = new CapabilityStatement();
+		capabilityStatement.getSoftware().setName("server").setVersion("1.0");
+
+		Mockito.when(api.getVariables(execution)).thenReturn(variables);
+		Mockito.when(variables.getStartTask()).thenReturn(task);
+		Mockito.when(variables.getTarget()).thenReturn(target);
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn("Test_HRP");
+		Mockito.when(variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE))
+				.thenReturn(searchBundle);
+		Mockito.when(fhirStoreSearchClient.search("metadata")).thenReturn(capabilityStatement);
+		Mockito.when(api.getTaskHelper()).thenReturn(taskHelper);
+		Mockito.when(taskHelper.createOutput(any(StringType.class), eq(ConstantsReport.CODESYSTEM_REPORT),
+				eq(ConstantsReport.CODESYSTEM_REPORT_VALUE_QUERY_PLAN))).thenReturn(new Task.TaskOutputComponent());
+
+		CreateQueryPlan service = new CreateQueryPlan(api, fhirStoreSearchClient, queryTimings,
+				new BundleVariables(api, false, 0), 2, null);
+		service.execute(execution);
+
+		Mockito.verify(taskHelper).createOutput(plan.capture(), eq(ConstantsReport.CODESYSTEM_REPORT),
+				eq(ConstantsReport.CODESYSTEM_REPORT_VALUE_QUERY_PLAN));
+		String value = plan.getValue().getValue();
+
+		assertTrue(value, value.contains("Requests: 4, distinct queries: 3, parallelism: 2"));
+		// queries in the order of the search Bundle, each on the lane that becomes free first
+		assertTrue(value, value.contains("50\t1\t2\t" + OBSERVATION + "&_count=0\n"
+				+ "200\t2\t1\t" + CONDITION + "&_count=0\n" + "?\t1\t1\t" + PATIENT + "&_count=0\n"));
+		assertTrue(value, value.endsWith("Estimated total runtime: 200 ms plus 1 queries without recorded timings"));
+	}
+}
@@ -0,0 +1,101 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Medication;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class SearchPredicateTest
+{
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private static final String VITALSTATUS = "https://www.medizininformatik-initiative.de/fhir/core/modul-person/StructureDefinition/Vitalstatus";
+	private static final String DIAGNOSE = "https://www.medizininformatik-initiative.de/fhir/core/modul-diagnose/StructureDefinition/Diagnose";
+
+	@Test
+	public void testProfileBelow()
+	{
+		Observation versioned = new Observation();
+		versioned.getMeta().addProfile(VITALSTATUS + "|1.0.2");
+
+		Observation unversioned = new Observation();
+		unversioned.getMeta().addProfile(VITALSTATUS);
+
+		assertTrue(matches("Observation?_profile:below=" + VITALSTATUS + "&_summary=count", versioned));
+		assertTrue(matches("Observation?_profile:below=" + VITALSTATUS + "&_summary=count", unversioned));
+		assertTrue(matches("Observation?_profile:below=" + VITALSTATUS + "|1&_summary=count", versioned));
+		assertFalse(matches("Observation?_profile:below=" + VITALSTATUS + "|2&_summary=count", versioned));
+		assertFalse(matches("Observation?_profile:below=" + VITALSTATUS + "|1&_summary=count", unversioned));
+		assertFalse(matches("Condition?_profile:below=" + VITALSTATUS + "&_summary=count", versioned));
+	}
+
+	@Test
+	public void testCodeSystem()
+	{
+		Condition condition = new Condition();
+		condition.getMeta().addProfile(DIAGNOSE);
+		condition.getCode().addCoding().setSystem("http://fhir.de/CodeSystem/bfarm/icd-10-gm").setCode("C50.9");
+
+		assertTrue(matches("Condition?code=http://fhir.de/CodeSystem/bfarm/icd-10-gm|&_profile:below=" + DIAGNOSE
+				+ "&_summary=count", condition));
+		assertFalse(matches("Condition?code=http://snomed.info/sct|&_profile:below=" + DIAGNOSE + "&_summary=count",
+				condition));
+	}
+
+	@Test
+	public void testIngredientCode()
+	{
+		CodeableConcept ingredient = new CodeableConcept();
+		ingredient.addCoding().setSystem("http://fhir.de/CodeSystem/ask").setCode("12345");
+
+		Medication medication = new Medication();
+		medication.addIngredient().setItem(ingredient);
+
+		assertTrue(matches("Medication?ingredient-code=http://fhir.de/CodeSystem/ask|&_summary=count", medication));
+		assertFalse(matches("Medication?ingredient-code=http://snomed.info/sct|&_summary=count", medication));
+	}
+
+	@Test
+	public void testEncounterTypeAndDate()
+	{
+		Encounter encounter = new Encounter();
+		encounter.addType().addCoding().setSystem("http://fhir.de/CodeSystem/Kontaktebene")
+				.setCode("einrichtungskontakt");
+		encounter.setPeriod(new Period().setStartElement(new DateTimeType("2020-03-01T10:00:00+01:00"))
+				.setEndElement(new DateTimeType("2020-03-05T10:00:00+01:00")));
+
+		assertTrue(matches(
+				"Encounter?type=http://fhir.de/CodeSystem/Kontaktebene|einrichtungskontakt&_summary=count",
+				encounter));
+		assertFalse(matches(
+				"Encounter?type=http://fhir.de/CodeSystem/Kontaktebene|abteilungskontakt&_summary=count", encounter));
+		assertTrue(matches("Encounter?date=eq2020&_summary=count", encounter));
+		assertFalse(matches("Encounter?date=eq2021&_summary=count", encounter));
+
+		encounter.getPeriod().setEndElement(null);
+		assertFalse(matches("Encounter?date=eq2020&_summary=count", encounter));
+	}
+
+	@Test
+	public void testUnsupported()
+	{
+		assertFalse(SearchPredicate.compile(FHIR_CONTEXT, "Condition?code:not=http://snomed.info/sct|").isPresent());
+		assertFalse(SearchPredicate.compile(FHIR_CONTEXT, "Encounter?date=ge2020&_summary=count").isPresent());
+		assertFalse(SearchPredicate.compile(FHIR_CONTEXT, "metadata").isPresent());
+	}
+
+	private boolean matches(String url, Resource resource)
+	{
+		return SearchPredicate.compile(FHIR_CONTEXT, url).orElseThrow().test(resource);
+	}
+}
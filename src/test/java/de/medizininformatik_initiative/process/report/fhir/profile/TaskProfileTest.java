@@ -6,6 +6,9 @@ import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import org.hl7.fhir.r4.model.Base64BinaryType;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.StringType;
@@ -21,6 +24,7 @@ import ca.uhn.fhir.validation.ResultSeverityEnum;
 import ca.uhn.fhir.validation.ValidationResult;
 import de.medizininformatik_initiative.process.report.ConstantsReport;
 import de.medizininformatik_initiative.process.report.ReportProcessPluginDefinition;
+import de.medizininformatik_initiative.process.report.util.InlineReport;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
 import dev.dsf.bpe.v1.constants.CodeSystems;
 import dev.dsf.bpe.v1.constants.NamingSystems;
@@ -188,6 +192,35 @@ public class TaskProfileTest
 				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
 	}
 
+	@Test
+	public void testTaskSendStartProcessProfileValidWithDryRun()
+	{
+		Task task = createValidTaskSendStartProcess();
+		task.addInput().setValue(new BooleanType(true)).getType().addCoding()
+				.setSystem(ConstantsReport.CODESYSTEM_REPORT).setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_DRY_RUN);
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
+	@Test
+	public void testTaskSendStartProcessProfileValidWithQueryPlanOutput()
+	{
+		Task task = createValidTaskSendStartProcess();
+		task.addOutput().setValue(new StringType("Estimated total runtime: 0 ms")).getType().addCoding()
+				.setSystem(ConstantsReport.CODESYSTEM_REPORT)
+				.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_QUERY_PLAN);
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
 	@Test
 	public void testTaskSendStartProcessProfileValidWithReportStatusOutput()
 	{
@@ -276,6 +309,24 @@ public class TaskProfileTest
 				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
 	}
 
+	@Test
+	public void testTaskSendProcessProfileValidWithInlineReport()
+	{
+		Bundle report = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+		report.getIdentifier().setSystem(ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER).setValue("DIC");
+
+		Task task = createValidTaskSendProcess();
+		task.addInput().setValue(new Base64BinaryType(InlineReport.encode(validationRule.getFhirContext(), report)))
+				.getType().addCoding().setSystem(ConstantsReport.CODESYSTEM_REPORT)
+				.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_INLINE);
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
 	private Task createValidTaskSendProcess()
 	{
 		Task task = new Task();
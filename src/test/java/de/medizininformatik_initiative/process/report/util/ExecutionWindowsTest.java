@@ -0,0 +1,139 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.junit.Test;
+
+public class ExecutionWindowsTest
+{
+	// 2026-10-19 is a Monday
+	private static final LocalDate MONDAY = LocalDate.of(2026, 10, 19);
+	private static final LocalDate FRIDAY = MONDAY.plusDays(4);
+	private static final LocalDate SATURDAY = MONDAY.plusDays(5);
+	private static final LocalDate SUNDAY = MONDAY.plusDays(6);
+
+	@Test
+	public void testEmptyAllowsEveryTime()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse(" ");
+
+		assertTrue(windows.contains(MONDAY.atTime(12, 0)));
+		assertEquals(Optional.empty(), windows.nextStart(MONDAY.atTime(12, 0)));
+		assertTrue(ExecutionWindows.parse(null).contains(MONDAY.atTime(12, 0)));
+		assertTrue(ExecutionWindows.parse(" ; ").contains(MONDAY.atTime(12, 0)));
+	}
+
+	@Test
+	public void testWindowWithoutDays()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("08:00-12:30");
+
+		assertFalse(windows.contains(MONDAY.atTime(7, 59)));
+		assertTrue(windows.contains(MONDAY.atTime(8, 0)));
+		assertTrue(windows.contains(SUNDAY.atTime(12, 29)));
+		assertFalse(windows.contains(SUNDAY.atTime(12, 30)));
+	}
+
+	@Test
+	public void testOvernightWindow()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("Mon-Fri 22:00-06:00");
+
+		assertTrue(windows.contains(MONDAY.atTime(22, 0)));
+		assertTrue(windows.contains(MONDAY.plusDays(1).atTime(5, 59)));
+		assertFalse(windows.contains(MONDAY.plusDays(1).atTime(6, 0)));
+		assertFalse(windows.contains(MONDAY.atTime(21, 59)));
+
+		// the window starting on Friday ends on Saturday, no window starts on Sunday
+		assertTrue(windows.contains(SATURDAY.atTime(3, 0)));
+		assertFalse(windows.contains(SATURDAY.atTime(22, 0)));
+		assertFalse(windows.contains(MONDAY.atTime(3, 0)));
+	}
+
+	@Test
+	public void testWholeDayWindow()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("Sat,Sun 00:00-24:00");
+
+		assertTrue(windows.contains(SATURDAY.atTime(0, 0)));
+		assertTrue(windows.contains(SUNDAY.atTime(23, 59)));
+		assertFalse(windows.contains(MONDAY.atTime(0, 0)));
+		assertFalse(windows.contains(FRIDAY.atTime(23, 59)));
+	}
+
+	@Test
+	public void testDayRangeAcrossSunday()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("fri-MON 10:00-11:00");
+
+		assertTrue(windows.contains(FRIDAY.atTime(10, 0)));
+		assertTrue(windows.contains(SATURDAY.atTime(10, 0)));
+		assertTrue(windows.contains(SUNDAY.atTime(10, 0)));
+		assertTrue(windows.contains(MONDAY.atTime(10, 0)));
+		assertFalse(windows.contains(MONDAY.plusDays(1).atTime(10, 0)));
+		assertFalse(windows.contains(MONDAY.plusDays(3).atTime(10, 0)));
+	}
+
+	@Test
+	public void testMultipleWindows()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("Mon-Fri 22:00-06:00; Sat,Sun 00:00-24:00");
+
+		assertTrue(windows.contains(SATURDAY.atTime(12, 0)));
+		assertTrue(windows.contains(MONDAY.atTime(23, 0)));
+		assertFalse(windows.contains(FRIDAY.atTime(12, 0)));
+	}
+
+	@Test
+	public void testNextStart()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("Mon-Fri 22:00-06:00; Sat,Sun 00:00-24:00");
+
+		assertEquals(Optional.of(MONDAY.atTime(22, 0)), windows.nextStart(MONDAY.atTime(12, 0)));
+		assertEquals(Optional.of(SATURDAY.atTime(0, 0)), windows.nextStart(FRIDAY.atTime(22, 30)));
+		assertEquals(Optional.of(SUNDAY.atTime(0, 0)), windows.nextStart(SATURDAY.atTime(0, 0)));
+		assertEquals(Optional.of(MONDAY.plusDays(7).atTime(22, 0)), windows.nextStart(SUNDAY.atTime(12, 0)));
+	}
+
+	@Test
+	public void testNextStartOneWeekLater()
+	{
+		ExecutionWindows windows = ExecutionWindows.parse("Mon 10:00-11:00");
+
+		LocalDateTime start = MONDAY.atTime(10, 0);
+
+		assertEquals(Optional.of(start.plusDays(7)), windows.nextStart(start));
+		assertEquals(Optional.of(start.plusDays(7)), windows.nextStart(start.plusMinutes(1)));
+		assertEquals(Optional.of(start), windows.nextStart(start.minusMinutes(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseEmptyWindow()
+	{
+		ExecutionWindows.parse("Mon 10:00-10:00");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseStartAtEndOfDay()
+	{
+		ExecutionWindows.parse("24:00-06:00");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseUnknownDay()
+	{
+		ExecutionWindows.parse("Mo-Fr 22:00-06:00");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseMissingEnd()
+	{
+		ExecutionWindows.parse("Mon 22:00");
+	}
+}
@@ -0,0 +1,114 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Identifier;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ReportBundleHashTest
+{
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private static final String PROFILE_A = "http://example.org/fhir/StructureDefinition/a|1.0";
+	private static final String PROFILE_B = "http://example.org/fhir/StructureDefinition/b|1.0";
+
+	@Test
+	public void testIdsVersionsAndTimestampsIgnored()
+	{
+		Bundle report = createReport(10, new Date(1000));
+
+		Bundle stored = createReport(10, new Date(2000));
+		stored.setId("Bundle/1/_history/3");
+		stored.getMeta().setVersionId("3").setLastUpdated(new Date(3000));
+		stored.getMeta().addSecurity().setSystem("http://dsf.dev/fhir/CodeSystem/read-access-tag").setCode("LOCAL");
+		stored.getEntry().get(0).getResource().setId("searchset");
+		((CapabilityStatement) stored.getEntry().get(1).getResource()).setDate(new Date(4000));
+
+		assertEquals(ReportBundleHash.compute(FHIR_CONTEXT, report), ReportBundleHash.compute(FHIR_CONTEXT, stored));
+	}
+
+	@Test
+	public void testProfileOrderIgnored()
+	{
+		Bundle report = createReport(10, new Date(1000));
+		report.getMeta().addProfile(PROFILE_A).addProfile(PROFILE_B);
+
+		Bundle stored = createReport(10, new Date(1000));
+		stored.getMeta().addProfile(PROFILE_B).addProfile(PROFILE_A);
+
+		assertEquals(ReportBundleHash.compute(FHIR_CONTEXT, report), ReportBundleHash.compute(FHIR_CONTEXT, stored));
+	}
+
+	@Test
+	public void testContentChangesDetected()
+	{
+		Bundle report = createReport(10, new Date(1000));
+
+		Bundle changedTotal = createReport(11, new Date(1000));
+		assertNotEquals(ReportBundleHash.compute(FHIR_CONTEXT, report),
+				ReportBundleHash.compute(FHIR_CONTEXT, changedTotal));
+
+		Bundle changedSoftware = createReport(10, new Date(1000));
+		((CapabilityStatement) changedSoftware.getEntry().get(1).getResource()).getSoftware().setVersion("2.0");
+		assertNotEquals(ReportBundleHash.compute(FHIR_CONTEXT, report),
+				ReportBundleHash.compute(FHIR_CONTEXT, changedSoftware));
+
+		Bundle changedStatus = createReport(10, new Date(1000));
+		changedStatus.getEntry().get(0).getResponse().setStatus("500");
+		assertNotEquals(ReportBundleHash.compute(FHIR_CONTEXT, report),
+				ReportBundleHash.compute(FHIR_CONTEXT, changedStatus));
+	}
+
+	@Test
+	public void testCanonicalEntryKeepsSourceUnchanged()
+	{
+		Bundle report = createReport(10, new Date(1000));
+		report.getEntry().get(0).getResource().setId("searchset");
+
+		Bundle.BundleEntryComponent canonical = ReportBundleHash.canonicalEntry(report.getEntry().get(0));
+
+		assertNull(canonical.getResource().getMeta().getLastUpdated());
+		assertEquals(new Date(1000), report.getEntry().get(0).getResource().getMeta().getLastUpdated());
+		assertEquals("searchset", report.getEntry().get(0).getResource().getIdElement().getIdPart());
+	}
+
+	@Test
+	public void testSearchTimes()
+	{
+		Bundle report = createReport(10, new Date(1000));
+
+		assertEquals(2, ReportBundleHash.getSearchTimes(report).size());
+		assertEquals(new Date(1000), ReportBundleHash.getSearchTimes(report).get(0));
+		assertNull(ReportBundleHash.getSearchTimes(report).get(1));
+
+		assertNotEquals(ReportBundleHash.getSearchTimes(report),
+				ReportBundleHash.getSearchTimes(createReport(10, new Date(2000))));
+		assertEquals(List.of(), ReportBundleHash.getSearchTimes(new Bundle()));
+	}
+
+	private Bundle createReport(int total, Date searchTime)
+	{
+		Bundle report = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+		report.setIdentifier(new Identifier().setSystem("http://example.org/report").setValue("dic.example.org"));
+
+		report.addEntry(
+				ReportEntry.searchset("Patient?_summary=count", "200", total, false, searchTime).toBundleEntry());
+
+		CapabilityStatement capabilityStatement = new CapabilityStatement();
+		capabilityStatement.setStatus(Enumerations.PublicationStatus.ACTIVE).setDate(new Date(0));
+		capabilityStatement.getSoftware().setName("server").setVersion("1.0");
+		report.addEntry(ReportEntry.capabilityStatement("metadata", "200", capabilityStatement).toBundleEntry());
+
+		return report;
+	}
+}
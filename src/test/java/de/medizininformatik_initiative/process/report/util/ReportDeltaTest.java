@@ -0,0 +1,159 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Identifier;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+
+public class ReportDeltaTest
+{
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private static final String OBSERVATION = "Observation?_summary=count";
+	private static final String CONDITION = "Condition?_summary=count";
+	private static final String BASE_REFERENCE = "https://dic.example.org/fhir/Bundle/1/_history/2";
+
+	@Test
+	public void testCreateAndMerge()
+	{
+		Bundle base = createReport(List.of(OBSERVATION, CONDITION), List.of(10, 20));
+		Bundle report = createReport(List.of(OBSERVATION, CONDITION), List.of(10, 21));
+
+		Bundle delta = create(base, report).get();
+
+		assertEquals(1, delta.getEntry().size());
+		assertEquals(21, ((Bundle) delta.getEntry().get(0).getResource()).getTotal());
+		assertEquals(Optional.of(new ReportDelta.Base(BASE_REFERENCE, hash(base))), ReportDelta.getBase(delta));
+
+		Bundle merged = ReportDelta.merge(base, delta);
+
+		assertEquals(List.of(10, 21), getTotals(merged));
+		assertFalse(merged.getMeta().hasExtension(ConstantsReport.EXTENSION_REPORT_DELTA_BASE_URL));
+		assertEquals(hash(report), hash(merged));
+	}
+
+	@Test
+	public void testCreateUnchanged()
+	{
+		Bundle base = createReport(List.of(OBSERVATION, CONDITION), List.of(10, 20));
+		Bundle report = createReport(List.of(OBSERVATION, CONDITION), List.of(10, 20));
+
+		Bundle delta = create(base, report).get();
+
+		assertTrue(delta.getEntry().isEmpty());
+		assertEquals(hash(report), hash(ReportDelta.merge(base, delta)));
+	}
+
+	@Test
+	public void testCreateDifferentEntries()
+	{
+		Bundle base = createReport(List.of(OBSERVATION, CONDITION), List.of(10, 20));
+
+		assertTrue(create(base, createReport(List.of(CONDITION, OBSERVATION), List.of(20, 10))).isEmpty());
+		assertTrue(create(base, createReport(List.of(OBSERVATION), List.of(10))).isEmpty());
+	}
+
+	@Test
+	public void testDuplicateUrls()
+	{
+		Bundle base = createReport(List.of(OBSERVATION, CONDITION, OBSERVATION), List.of(10, 20, 10));
+		Bundle report = createReport(List.of(OBSERVATION, CONDITION, OBSERVATION), List.of(10, 20, 11));
+
+		Bundle delta = create(base, report).get();
+
+		// all entries of a changed url are sent
+		assertEquals(List.of(10, 11), getTotals(delta));
+
+		Bundle merged = ReportDelta.merge(base, delta);
+
+		assertEquals(List.of(10, 20, 11), getTotals(merged));
+		assertEquals(hash(report), hash(merged));
+	}
+
+	@Test
+	public void testCapabilityStatementChanged()
+	{
+		Bundle base = createReport(List.of(OBSERVATION), List.of(10));
+		base.addEntry(capabilityStatement("1.0"));
+		Bundle report = createReport(List.of(OBSERVATION), List.of(10));
+		report.addEntry(capabilityStatement("2.0"));
+
+		Bundle delta = create(base, report).get();
+
+		assertEquals(1, delta.getEntry().size());
+		assertEquals("2.0", ((CapabilityStatement) ReportDelta.merge(base, delta).getEntry().get(1).getResource())
+				.getSoftware().getVersion());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeUnknownEntry()
+	{
+		Bundle base = createReport(List.of(OBSERVATION), List.of(10));
+		Bundle delta = create(base, createReport(List.of(OBSERVATION), List.of(11))).get();
+
+		ReportDelta.merge(createReport(List.of(CONDITION), List.of(20)), delta);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeMissingDuplicateEntry()
+	{
+		Bundle base = createReport(List.of(OBSERVATION, OBSERVATION), List.of(10, 10));
+		Bundle delta = create(base, createReport(List.of(OBSERVATION, OBSERVATION), List.of(10, 11))).get();
+		delta.getEntry().remove(0);
+
+		ReportDelta.merge(base, delta);
+	}
+
+	@Test
+	public void testGetBaseOfFullReport()
+	{
+		assertEquals(Optional.empty(), ReportDelta.getBase(createReport(List.of(OBSERVATION), List.of(10))));
+	}
+
+	private Optional<Bundle> create(Bundle base, Bundle report)
+	{
+		return ReportDelta.create(base, new ReportDelta.Base(BASE_REFERENCE, hash(base)), report);
+	}
+
+	private String hash(Bundle report)
+	{
+		return ReportBundleHash.compute(FHIR_CONTEXT, report);
+	}
+
+	private List<Integer> getTotals(Bundle report)
+	{
+		return report.getEntry().stream().map(e -> ((Bundle) e.getResource()).getTotal()).toList();
+	}
+
+	private Bundle createReport(List<String> urls, List<Integer> totals)
+	{
+		Bundle report = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+		report.setIdentifier(new Identifier().setSystem(ConstantsReport.NAMINGSYSTEM_CDS_REPORT_IDENTIFIER)
+				.setValue("dic.example.org"));
+
+		for (int i = 0; i < urls.size(); i++)
+			report.addEntry(
+					ReportEntry.searchset(urls.get(i), "200", totals.get(i), false, new Date()).toBundleEntry());
+
+		return report;
+	}
+
+	private Bundle.BundleEntryComponent capabilityStatement(String softwareVersion)
+	{
+		CapabilityStatement capabilityStatement = new CapabilityStatement();
+		capabilityStatement.getSoftware().setName("server").setVersion(softwareVersion);
+
+		return ReportEntry.capabilityStatement("metadata", "200", capabilityStatement).toBundleEntry();
+	}
+}
@@ -0,0 +1,193 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import ca.uhn.fhir.context.FhirContext;
+import dev.dsf.fhir.client.FhirWebserviceClient;
+import dev.dsf.fhir.client.PreferReturnMinimalWithRetry;
+
+public class ReportPartitionsTest
+{
+	private static final String IDENTIFIER = "http://example.org/report|dic.example.org";
+
+	private static final String OBSERVATION = "Observation?_summary=count";
+	private static final String CONDITION = "Condition?_summary=count";
+	private static final String PROCEDURE = "Procedure?_summary=count";
+	private static final String PATIENT = "Patient?_summary=count";
+
+	@Test
+	public void testParse()
+	{
+		ReportPartitions partitions = ReportPartitions.parse(" Observation ; Condition , Procedure ;; ");
+
+		assertFalse(partitions.isEmpty());
+		assertEquals(Optional.of(0), partitions.getPartition(OBSERVATION));
+		assertEquals(Optional.of(1), partitions.getPartition(CONDITION));
+		assertEquals(Optional.of(1), partitions.getPartition("Procedure"));
+		assertEquals(Optional.empty(), partitions.getPartition(PATIENT));
+		assertEquals(Optional.empty(), partitions.getPartition("metadata"));
+	}
+
+	@Test
+	public void testParseEmpty()
+	{
+		assertTrue(ReportPartitions.parse(null).isEmpty());
+		assertTrue(ReportPartitions.parse(" ").isEmpty());
+		assertTrue(ReportPartitions.parse(";").isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseDuplicateResourceType()
+	{
+		ReportPartitions.parse("Observation; Condition,Observation");
+	}
+
+	@Test
+	public void testPartitionsMissingInPreviousReportExecuted()
+	{
+		ReportPartitions partitions = ReportPartitions.parse("Observation; Condition; Procedure");
+		List<String> urls = List.of(OBSERVATION, CONDITION, PROCEDURE, PATIENT);
+
+		assertEquals(Set.of(0, 1, 2), partitions.getExecutedPartitions(urls, Map.of()));
+		assertEquals(Set.of(1, 2), partitions.getExecutedPartitions(urls, Map.of(OBSERVATION, entry(OBSERVATION, 0))));
+	}
+
+	@Test
+	public void testOldestPartitionExecuted()
+	{
+		ReportPartitions partitions = ReportPartitions.parse("Observation; Condition; Procedure");
+		List<String> urls = List.of(OBSERVATION, CONDITION, PROCEDURE, PATIENT);
+
+		Map<String, ReportEntry> previous = Map.of(OBSERVATION, entry(OBSERVATION, 3000), CONDITION,
+				entry(CONDITION, 1000), PROCEDURE, entry(PROCEDURE, 2000), PATIENT, entry(PATIENT, 0));
+
+		assertEquals(Set.of(1), partitions.getExecutedPartitions(urls, previous));
+	}
+
+	@Test
+	public void testPartitionsRotateWithUnchangedCounts()
+	{
+		ReportPartitions partitions = ReportPartitions.parse("Observation; Condition; Procedure");
+		List<String> urls = List.of(OBSERVATION, CONDITION, PROCEDURE, PATIENT);
+
+		List<Bundle> stored = new ArrayList<>();
+		FhirWebserviceClient client = createClient(stored);
+		ReportBundleStore store = new ReportBundleStore(FhirContext.forR4(), true);
+
+		List<Set<Integer>> executed = new ArrayList<>();
+		for (int run = 0; run < 7; run++)
+		{
+			Map<String, ReportEntry> previous = stored.isEmpty() ? Map.of() : toEntries(stored.get(stored.size() - 1));
+			Set<Integer> runExecuted = partitions.getExecutedPartitions(urls, previous);
+			executed.add(runExecuted);
+
+			// counts never change, only the search time of executed requests
+			Bundle report = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+			report.setIdentifier(new Identifier().setSystem("http://example.org/report").setValue("dic.example.org"));
+			for (String url : urls)
+			{
+				Optional<Integer> partition = partitions.getPartition(url);
+				ReportEntry entry = partition.isPresent() && !runExecuted.contains(partition.get())
+						? previous.get(url)
+						: entry(url, (run + 1) * 1000L);
+				report.addEntry(entry.toBundleEntry());
+			}
+
+			store.store(client, report, IDENTIFIER);
+		}
+
+		assertEquals(List.of(Set.of(0, 1, 2), Set.of(0), Set.of(1), Set.of(2), Set.of(0), Set.of(1), Set.of(2)),
+				executed);
+		assertEquals(7, stored.size());
+	}
+
+	@Test
+	public void testUnchangedCountsNotWrittenWithoutTrackedSearchTimes()
+	{
+		List<Bundle> stored = new ArrayList<>();
+		FhirWebserviceClient client = createClient(stored);
+		ReportBundleStore store = new ReportBundleStore(FhirContext.forR4(), false);
+
+		for (int run = 0; run < 3; run++)
+		{
+			Bundle report = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+			report.setIdentifier(new Identifier().setSystem("http://example.org/report").setValue("dic.example.org"));
+			report.addEntry(entry(OBSERVATION, (run + 1) * 1000L).toBundleEntry());
+
+			store.store(client, report, IDENTIFIER);
+		}
+
+		assertEquals(1, stored.size());
+	}
+
+	private ReportEntry entry(String url, long searchTime)
+	{
+		return ReportEntry.searchset(url, "200", 10, false, new Date(searchTime));
+	}
+
+	private Map<String, ReportEntry> toEntries(Bundle report)
+	{
+		Map<String, ReportEntry> entries = new HashMap<>();
+		report.getEntry().stream().map(Bundle.BundleEntryComponent::getResource).map(r -> (Bundle) r)
+				.forEach(b -> entries.put(b.getLink(Bundle.LINK_SELF).getUrl(), ReportEntry.searchset(
+						b.getLink(Bundle.LINK_SELF).getUrl(), "200", b.getTotal(), false, b.getMeta().getLastUpdated())));
+
+		return entries;
+	}
+
+	// client of a FHIR server keeping all versions of a single report Bundle
+	private FhirWebserviceClient createClient(List<Bundle> stored)
+	{
+		PreferReturnMinimalWithRetry minimal = Mockito.mock(PreferReturnMinimalWithRetry.class);
+		Mockito.when(minimal.withRetry(anyInt(), anyLong())).thenReturn(minimal);
+		Mockito.when(minimal.update(any(Bundle.class))).thenAnswer(i -> write(stored, i.getArgument(0)));
+		Mockito.when(minimal.updateConditionaly(any(Bundle.class), any()))
+				.thenAnswer(i -> write(stored, i.getArgument(0)));
+
+		FhirWebserviceClient client = Mockito.mock(FhirWebserviceClient.class);
+		Mockito.when(client.withMinimalReturn()).thenReturn(minimal);
+		Mockito.when(client.searchWithStrictHandling(eq(Bundle.class), any())).thenAnswer(i ->
+		{
+			Bundle result = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+			if (!stored.isEmpty())
+				result.addEntry().setResource(stored.get(stored.size() - 1).copy());
+
+			return result;
+		});
+
+		return client;
+	}
+
+	private IdType write(List<Bundle> stored, Bundle report)
+	{
+		String version = String.valueOf(stored.size() + 1);
+
+		Bundle copy = report.copy();
+		copy.setId(new IdType(ResourceType.Bundle.name(), "1", version));
+		copy.getMeta().setVersionId(version);
+		stored.add(copy);
+
+		return new IdType(ResourceType.Bundle.name(), "1", version);
+	}
+}